@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// The checked-in benchmark scripts under bench/corpus, bundled into the jar
+final class Corpus {
+
+    // Output is formatted as usual but thrown away
+    static final PrintStream NULL_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+
+    // Benchmarked code has already been checked to compile cleanly
+    static final ErrorReporter FAIL_ON_ERROR = (kind, line, token, message) -> {
+        throw new IllegalStateException(
+            new Diagnostics.Diagnostic(kind, line, token == null ? null : token.lexeme, message)
+                .toString());
+    };
+
+    private Corpus() {}
+
+    static String load(String name) {
+        String path = "/corpus/" + name + ".lox";
+        try (InputStream in = Corpus.class.getResourceAsStream(path)) {
+            if (in == null) throw new IllegalArgumentException("No corpus script " + path);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
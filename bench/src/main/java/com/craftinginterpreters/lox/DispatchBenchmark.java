@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Visitor double dispatch (Interpreter over Expr/Stmt) against a switch
+// over the sealed record AST (SwitchInterpreter over SealedExpr/SealedStmt).
+// Both interpret the same program with the same semantics, so the
+// difference is the cost of dispatching on node type.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({
+        "arithmetic_loops",
+        "string_building",
+        "nested_blocks",
+        "deep_expressions",
+        "fib"
+    })
+    public String script;
+
+    private LoxEngine engine;
+    private Script compiled;
+    private List<SealedStmt> sealed;
+
+    @Setup
+    public void setUp() {
+        engine = new LoxEngine();
+        compiled = engine.compileUncached(Corpus.load(script));
+        if (compiled.hasErrors()) throw new IllegalStateException(compiled.diagnostics().all().toString());
+        sealed = SealedLowering.lower(compiled.statements);
+    }
+
+    @Benchmark
+    public LoxContext visitor() {
+        LoxContext context = engine.newContext(Corpus.NULL_OUTPUT, Corpus.NULL_OUTPUT);
+        context.execute(compiled);
+        return context;
+    }
+
+    @Benchmark
+    public LoxContext sealedSwitch() {
+        LoxContext context = engine.newContext(Corpus.NULL_OUTPUT, Corpus.NULL_OUTPUT);
+        new SwitchInterpreter(context).interpret(sealed, compiled.frameSize);
+        return context;
+    }
+}
@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Source text in, output out: what one uncached Lox.run costs.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({
+        "arithmetic_loops",
+        "string_building",
+        "nested_blocks",
+        "deep_expressions",
+        "large_flat",
+        "fib"
+    })
+    public String script;
+
+    private String source;
+    private LoxEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new LoxEngine();
+        source = Corpus.load(script);
+    }
+
+    @Benchmark
+    public LoxContext run() {
+        // Bypass the engine's script cache, otherwise only the
+        // first invocation would scan and parse
+        LoxContext context = engine.newContext(Corpus.NULL_OUTPUT, Corpus.NULL_OUTPUT);
+        context.execute(engine.compileUncached(source));
+        return context;
+    }
+}
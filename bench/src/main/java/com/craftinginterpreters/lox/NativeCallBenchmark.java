@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Cost of one call, by kind of callee. Each invocation runs a loop of
+// CALLS iterations doing `x = <call>(i);`, so scores are per iteration;
+// subtract the `none` row (the same loop doing `x = i;`) to get the
+// overhead of the call itself.
+//   typed    sqrt registered as a DoubleUnaryOperator (the fast path)
+//   generic  the same sqrt registered through Natives.Generic
+//   lox      a Lox function doing the same amount of nothing
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeCallBenchmark {
+
+    private static final int CALLS = 100_000;
+
+    @Param({"none", "typed", "generic", "lox"})
+    public String callee;
+
+    private LoxEngine engine;
+    private Script compiled;
+
+    @Setup
+    public void setUp() {
+        engine = new LoxEngine();
+        engine.natives().define("genericSqrt", 1,
+            arguments -> Math.sqrt((Double)arguments[0]));
+
+        String call;
+        switch (callee) {
+            case "none": call = "i"; break;
+            case "typed": call = "sqrt(i)"; break;
+            case "generic": call = "genericSqrt(i)"; break;
+            case "lox": call = "loxSqrt(i)"; break;
+            default: throw new IllegalArgumentException(callee);
+        }
+        String source =
+            "fun loxSqrt(n) { return n; }\n" +
+            "var x = 0;\n" +
+            "for (var i = 0; i < " + CALLS + "; i = i + 1) {\n" +
+            "    x = " + call + ";\n" +
+            "}\n";
+        compiled = engine.compileUncached(source);
+        if (compiled.hasErrors()) throw new IllegalStateException(compiled.diagnostics().all().toString());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public LoxContext call() {
+        LoxContext context = engine.newContext(Corpus.NULL_OUTPUT, Corpus.NULL_OUTPUT);
+        context.execute(compiled);
+        return context;
+    }
+}
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each phase of running a script in isolation, over every corpus script.
+// The inputs of a phase (source, tokens, statements) are prepared once,
+// so a result only measures Scanner.scanTokens, Parser.parse or
+// Interpreter.interpret respectively.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+
+    @Param({
+        "arithmetic_loops",
+        "string_building",
+        "nested_blocks",
+        "deep_expressions",
+        "large_flat",
+        "fib"
+    })
+    public String script;
+
+    private String source;
+    private List<Token> tokens;
+    private Script compiled;
+    private LoxEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new LoxEngine();
+        source = Corpus.load(script);
+        tokens = new Scanner(source, Corpus.FAIL_ON_ERROR).scanTokens();
+        compiled = engine.compileUncached(source);
+        if (compiled.hasErrors()) throw new IllegalStateException(compiled.diagnostics().all().toString());
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, Corpus.FAIL_ON_ERROR).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        // The parser only reads the token list, so it can be shared
+        return new Parser(tokens, Corpus.FAIL_ON_ERROR).parse();
+    }
+
+    @Benchmark
+    public LoxContext interpret() {
+        // A fresh context per run so globals from the last run don't leak in
+        LoxContext context = engine.newContext(Corpus.NULL_OUTPUT, Corpus.NULL_OUTPUT);
+        context.execute(compiled);
+        return context;
+    }
+}
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+// A box for a local variable that a closure captured, so the function that
+// declared it and every closure that uses it see the same value.
+// Locals nobody captures are stored in their frame slot directly.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
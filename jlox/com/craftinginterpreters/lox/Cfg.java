@@ -0,0 +1,474 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// The mid-level IR the Optimizer works on: one function body (or the top
+// level of a script) as a control-flow graph of basic blocks.
+//
+// A block is a straight run of Ops in exactly the order the interpreter
+// performs them: operands before their operator, the callee and then the
+// arguments before the call, a value before the store it feeds. Control
+// only moves between blocks, at an if, a while, an `and`/`or` or a
+// return. Every Op points back at the AST node it came from, so a pass
+// reads its facts off the graph and then rewrites the tree, which stays
+// the thing the interpreters run.
+//
+// A nested function declaration is just the store of a new closure here;
+// its body gets a graph of its own.
+final class Cfg {
+
+    // A variable as the analyses see it: a frame slot, a captured Cell or
+    // a global. Slots are storage, not declarations, so sibling blocks that
+    // reuse a slot share a Location; that only makes the analyses more
+    // careful than they need to be.
+    static final class Location {
+        enum Kind { FRAME, CAPTURE, GLOBAL }
+
+        final Kind kind;
+        final int slot;
+        final String name;
+
+        private Location(Kind kind, int slot, String name) {
+            this.kind = kind;
+            this.slot = slot;
+            this.name = name;
+        }
+
+        static Location frame(int slot) {
+            return new Location(Kind.FRAME, slot, null);
+        }
+
+        static Location of(Resolver.Access access, int slot, Token name) {
+            switch (access) {
+                case LOCAL:
+                case CELL:
+                    return frame(slot);
+                case CAPTURE:
+                    return new Location(Kind.CAPTURE, slot, null);
+                default:
+                    return new Location(Kind.GLOBAL, -1, name.lexeme);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Location)) return false;
+            Location location = (Location)other;
+            return kind == location.kind && slot == location.slot
+                && Objects.equals(name, location.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, slot, name);
+        }
+    }
+
+    static final class Op {
+        enum Kind {
+            // A variable is read: a Variable, or a Hoisted temporary
+            READ,
+            // A variable is written: an Assign, Var or Function
+            WRITE,
+            // A Binary or Unary operator is applied to the operands
+            // computed just before it
+            EVAL,
+            // Any call, which may read and write every escaping variable
+            CALL,
+            // Output the script can see
+            PRINT
+        }
+
+        final Kind kind;
+        final Location location;
+        final Object node;
+        // For EVAL, the index in this block of the first Op of the
+        // operands, or -1 when they span blocks (an `and` or `or`)
+        final int start;
+
+        Op(Kind kind, Location location, Object node, int start) {
+            this.kind = kind;
+            this.location = location;
+            this.node = node;
+            this.start = start;
+        }
+    }
+
+    static final class Block {
+        final List<Op> ops = new ArrayList<>();
+        final List<Block> successors = new ArrayList<>(2);
+    }
+
+    // A while loop: the blocks of its condition and body, and what
+    // they write anywhere inside them
+    static final class Loop {
+        final List<Block> blocks = new ArrayList<>();
+        final Set<Location> writes = new HashSet<>();
+    }
+
+    final List<Block> blocks = new ArrayList<>();
+    final Block entry;
+    final Block exit;
+    // Keyed by the While statements of the tree the graph was built from
+    final Map<Stmt.While, Loop> loops = new IdentityHashMap<>();
+    // Frame slots that hold a Cell somewhere in the function, so closures
+    // (and therefore any call) may read and write them
+    private final Set<Integer> cellSlots = new HashSet<>();
+
+    private Cfg() {
+        entry = new Block();
+        exit = new Block();
+        blocks.add(entry);
+    }
+
+    static Cfg build(List<Stmt> body, boolean[] cellParams) {
+        Cfg cfg = new Cfg();
+        for (int i = 0; i < cellParams.length; i++) {
+            if (cellParams[i]) cfg.cellSlots.add(i);
+        }
+        Builder builder = new Builder(cfg);
+        for (Stmt statement : body) {
+            builder.lower(statement);
+        }
+        builder.current.successors.add(cfg.exit);
+        cfg.blocks.add(cfg.exit);
+        return cfg;
+    }
+
+    // Whether code outside this function (a closure, via a call) can
+    // reach the variable
+    boolean escapes(Location location) {
+        return location.kind != Location.Kind.FRAME || cellSlots.contains(location.slot);
+    }
+
+    // The non-escaping locations whose current value some later READ may
+    // still see, at the end of each block. Backward liveness, iterated to
+    // a fixed point; nothing is live at the exit, where the frame dies.
+    Map<Block, Set<Location>> liveOut() {
+        Map<Block, Set<Location>> liveIn = new HashMap<>();
+        Map<Block, Set<Location>> liveOut = new HashMap<>();
+        for (Block block : blocks) {
+            liveIn.put(block, new HashSet<>());
+            liveOut.put(block, new HashSet<>());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                Block block = blocks.get(i);
+                Set<Location> live = liveOut.get(block);
+                for (Block successor : block.successors) {
+                    live.addAll(liveIn.get(successor));
+                }
+
+                Set<Location> in = new HashSet<>(live);
+                for (int j = block.ops.size() - 1; j >= 0; j--) {
+                    Op op = block.ops.get(j);
+                    if (op.location == null || escapes(op.location)) continue;
+                    if (op.kind == Op.Kind.WRITE) {
+                        in.remove(op.location);
+                    } else if (op.kind == Op.Kind.READ) {
+                        in.add(op.location);
+                    }
+                }
+                if (liveIn.get(block).addAll(in)) changed = true;
+            }
+        }
+        return liveOut;
+    }
+
+    // Walks the tree in evaluation order, appending Ops to the current
+    // block and starting new blocks wherever control can branch or join
+    private static final class Builder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Cfg cfg;
+        private final List<Loop> activeLoops = new ArrayList<>();
+        Block current;
+
+        Builder(Cfg cfg) {
+            this.cfg = cfg;
+            this.current = cfg.entry;
+        }
+
+        void lower(Stmt stmt) {
+            if (stmt != null) stmt.accept(this);
+        }
+
+        void lower(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        private Block newBlock() {
+            Block block = new Block();
+            cfg.blocks.add(block);
+            for (Loop loop : activeLoops) {
+                loop.blocks.add(block);
+            }
+            return block;
+        }
+
+        // Ends the current block with an edge to a new one
+        private Block jumpTo(Block target) {
+            current.successors.add(target);
+            current = target;
+            return target;
+        }
+
+        private void op(Op.Kind kind, Location location, Object node, int start) {
+            current.ops.add(new Op(kind, location, node, start));
+            for (Loop loop : activeLoops) {
+                if (kind == Op.Kind.WRITE) loop.writes.add(location);
+            }
+        }
+
+        private void write(Resolver.Access access, int slot, Token name, Object node) {
+            if (access == Resolver.Access.CELL) cfg.cellSlots.add(slot);
+            op(Op.Kind.WRITE, Location.of(access, slot, name), node, 0);
+        }
+
+        // An operator node: its operands, then the node itself
+        private void eval(Expr node, Expr... operands) {
+            Block block = current;
+            int start = block.ops.size();
+            for (Expr operand : operands) {
+                lower(operand);
+            }
+            op(Op.Kind.EVAL, null, node, current == block ? start : -1);
+        }
+
+        // Every variable a hoisted expression may read if it's evaluated
+        // in place, without offering any of its values up for reuse
+        private void reads(Expr expr) {
+            if (expr instanceof Expr.Variable || expr instanceof Expr.Hoisted) {
+                lower(expr);
+            } else if (expr instanceof Expr.Grouping) {
+                reads(((Expr.Grouping)expr).expression);
+            } else if (expr instanceof Expr.Unary) {
+                reads(((Expr.Unary)expr).right);
+            } else if (expr instanceof Expr.Binary) {
+                reads(((Expr.Binary)expr).left);
+                reads(((Expr.Binary)expr).right);
+            } else if (expr instanceof Expr.Length) {
+                reads(((Expr.Length)expr).object);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                lower(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            lower(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            // Making the closure reads the Cells it captures, which are
+            // escaping already
+            for (int source : stmt.captures) {
+                if (source >= 0) cfg.cellSlots.add(source);
+            }
+            write(stmt.access, stmt.slot, stmt.name, stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            lower(stmt.condition);
+            Block branch = current;
+
+            jumpTo(newBlock());
+            lower(stmt.thenBranch);
+            Block thenEnd = current;
+
+            Block elseEnd = branch;
+            if (stmt.elseBranch != null) {
+                current = newBlock();
+                branch.successors.add(current);
+                lower(stmt.elseBranch);
+                elseEnd = current;
+            }
+
+            Block join = newBlock();
+            thenEnd.successors.add(join);
+            elseEnd.successors.add(join);
+            current = join;
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            lower(stmt.initializer);
+            write(stmt.access, stmt.slot, stmt.name, stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            lower(stmt.expression);
+            op(Op.Kind.PRINT, null, stmt, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            lower(stmt.value);
+            current.successors.add(cfg.exit);
+            // Anything after a return in the same list is unreachable
+            current = newBlock();
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Loop loop = new Loop();
+            cfg.loops.put(stmt, loop);
+            activeLoops.add(loop);
+
+            Block header = jumpTo(newBlock());
+            lower(stmt.condition);
+            Block branch = current;
+
+            jumpTo(newBlock());
+            lower(stmt.body);
+            current.successors.add(header);
+
+            activeLoops.remove(activeLoops.size() - 1);
+            current = newBlock();
+            branch.successors.add(current);
+            return null;
+        }
+
+        @Override
+        public Void visitCountedStmt(Stmt.Counted stmt) {
+            // Runs exactly like the loop it was made from
+            lower(stmt.loop);
+            return null;
+        }
+
+        @Override
+        public Void visitHoistStmt(Stmt.Hoist stmt) {
+            for (Expr expr : stmt.hoisted) {
+                Expr.Hoisted hoisted = (Expr.Hoisted)expr;
+                reads(hoisted.expression);
+                op(Op.Kind.WRITE, Location.frame(hoisted.slot), hoisted, 0);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            lower(expr.value);
+            write(expr.access, expr.slot, expr.name, expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            eval(expr, expr.left, expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            lower(expr.callee);
+            for (Expr argument : expr.arguments) {
+                lower(argument);
+            }
+            op(Op.Kind.CALL, null, expr, 0);
+            return null;
+        }
+
+        // Array elements aren't variables, so reading or writing one is
+        // only the evaluation of its operands as far as the graph goes
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            lower(expr.object);
+            lower(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr) {
+            lower(expr.object);
+            lower(expr.index);
+            lower(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLengthExpr(Expr.Length expr) {
+            lower(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitSpawnExpr(Expr.Spawn expr) {
+            // The task it starts can write any variable that escapes, at
+            // any time from here on, just as a call can while it runs
+            lower(expr.call);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            lower(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            lower(expr.left);
+            Block branch = current;
+
+            jumpTo(newBlock());
+            lower(expr.right);
+
+            Block join = newBlock();
+            current.successors.add(join);
+            branch.successors.add(join);
+            current = join;
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.access == Resolver.Access.CELL) cfg.cellSlots.add(expr.slot);
+            op(Op.Kind.READ, Location.of(expr.access, expr.slot, expr.name), expr, 0);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            eval(expr, expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitHoistedExpr(Expr.Hoisted expr) {
+            // Falling back to the expression reads its variables too
+            reads(expr.expression);
+            op(Op.Kind.READ, Location.frame(expr.slot), expr, 0);
+            return null;
+        }
+    }
+}
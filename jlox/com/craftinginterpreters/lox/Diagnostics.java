@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The errors and warnings found in a script, in the order they were found.
+//
+// Compiling collects a script's compile errors here (see
+// Script.diagnostics()), and a LoxContext keeps everything reported to it
+// over its runs, runtime errors included (see LoxContext.diagnostics()),
+// so an embedder can look at what went wrong instead of scraping err.
+//
+// Only the first `cap` diagnostics are kept; the rest are still counted,
+// so a linting job over a big, broken input holds on to a bounded number
+// of them and can still tell how many there were. Nothing is printed
+// until someone asks (see print()).
+//
+// A Diagnostics isn't thread safe. The one a Script holds isn't modified
+// after the script has been compiled.
+public final class Diagnostics implements ErrorReporter {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    public enum Kind {
+        WARNING,
+        // A compile error: the script won't run
+        ERROR,
+        RUNTIME_ERROR
+    }
+
+    // `token` is the lexeme the diagnostic is at: "" for the end of the
+    // input, null for scan errors, which aren't at any token
+    public record Diagnostic(Kind kind, int line, String token, String message) {
+        @Override
+        public String toString() {
+            if (kind == Kind.RUNTIME_ERROR) return message + "\n[line " + line + "]";
+            String where = token == null ? "" : token.isEmpty() ? " at end" : " at '" + token + "'";
+            return String.format("[line %s] %s %s: %s",
+                line, kind == Kind.ERROR ? "Error" : "Warning", where, message);
+        }
+    }
+
+    private final int cap;
+    private final List<Diagnostic> kept = new ArrayList<>();
+    // Everything reported, kept or not, by kind
+    private final int[] counts = new int[Kind.values().length];
+
+    public Diagnostics() {
+        this(UNLIMITED);
+    }
+
+    public Diagnostics(int cap) {
+        if (cap < 0) throw new IllegalArgumentException("Negative diagnostics cap");
+        this.cap = cap;
+    }
+
+    @Override
+    public void report(Kind kind, int line, Token token, String message) {
+        add(new Diagnostic(kind, line, token == null ? null : token.lexeme, message));
+    }
+
+    void runtimeError(RuntimeError error) {
+        report(Kind.RUNTIME_ERROR, error.token.line, error.token, error.getMessage());
+    }
+
+    private void add(Diagnostic diagnostic) {
+        counts[diagnostic.kind().ordinal()]++;
+        if (kept.size() < cap) kept.add(diagnostic);
+    }
+
+    // Adds everything `other` collected, counting what it dropped as
+    // dropped here too
+    void addAll(Diagnostics other) {
+        int[] added = new int[counts.length];
+        for (Diagnostic diagnostic : other.kept) {
+            add(diagnostic);
+            added[diagnostic.kind().ordinal()]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i] - added[i];
+        }
+    }
+
+    // The diagnostics that were kept, oldest first
+    public List<Diagnostic> all() {
+        return Collections.unmodifiableList(kept);
+    }
+
+    // How many of `kind` were reported, including any that weren't kept
+    public int count(Kind kind) {
+        return counts[kind.ordinal()];
+    }
+
+    public boolean hasErrors() {
+        return count(Kind.ERROR) > 0;
+    }
+
+    public boolean isEmpty() {
+        return kept.isEmpty() && dropped() == 0;
+    }
+
+    // How many went over the cap
+    public int dropped() {
+        int total = 0;
+        for (int count : counts) total += count;
+        return total - kept.size();
+    }
+
+    public void clear() {
+        kept.clear();
+        for (int i = 0; i < counts.length; i++) counts[i] = 0;
+    }
+
+    // One line per diagnostic kept (two for a runtime error), then how
+    // many weren't
+    public void print(PrintStream err) {
+        for (Diagnostic diagnostic : kept) {
+            err.println(diagnostic);
+        }
+        if (dropped() > 0) {
+            err.println("[" + dropped() + " more not shown]");
+        }
+    }
+}
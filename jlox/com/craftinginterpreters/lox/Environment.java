@@ -1,14 +1,25 @@
 package com.craftinginterpreters.lox;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Global variables, shared by every task a context spawns (see LoxTask).
+//
+// Each variable behaves like a Java volatile: a read sees the latest
+// write to it from any task, and a task that reads a value another task
+// wrote also sees everything that task did before writing it. There is no
+// atomic read-modify-write, so two tasks running `n = n + 1` can lose
+// updates; tasks that need to agree should talk over a channel.
 public class Environment {
 
+    // ConcurrentHashMap can't hold null, so nil is stored as this
+    private static final Object NIL = new Object();
+
     final Environment enclosing;
 
     // TODO make this private
-    final Map<String, Object> values = new HashMap<>();
+    final Map<String, Object> values = new ConcurrentHashMap<>();
 
     Environment() {
         enclosing = null;
@@ -19,12 +30,12 @@ public class Environment {
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        values.put(name, value == null ? NIL : value);
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        // Only replaces a variable that exists, in one atomic step
+        if (values.replace(name.lexeme, value == null ? NIL : value) != null) {
             return;
         }
 
@@ -38,9 +49,19 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
+    // The variables sorted by name, with nil as null (see Snapshot)
+    Map<String, Object> copy() {
+        Map<String, Object> copy = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue() == NIL ? null : entry.getValue());
+        }
+        return copy;
+    }
+
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        Object value = values.get(name.lexeme);
+        if (value != null) {
+            return value == NIL ? null : value;
         }
 
         if (enclosing != null) {
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+// Where the scanner, parser and resolver send what they find, usually a
+// Diagnostics. Each LoxContext (or a single compilation) brings its own,
+// so concurrent scripts never share error state.
+interface ErrorReporter {
+
+    // `token` is null for errors that aren't at a token
+    void report(Diagnostics.Kind kind, int line, Token token, String message);
+
+    default void error(int line, String message) {
+        report(Diagnostics.Kind.ERROR, line, null, message);
+    }
+
+    default void error(Token token, String message) {
+        report(Diagnostics.Kind.ERROR, token.line, token, message);
+    }
+
+    default void warning(Token token, String message) {
+        report(Diagnostics.Kind.WARNING, token.line, token, message);
+    }
+}
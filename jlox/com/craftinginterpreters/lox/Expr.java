@@ -1,16 +1,25 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 abstract class Expr {
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
         R visitBinaryExpr(Binary expr);
+        R visitCallExpr(Call expr);
+        R visitIndexExpr(Index expr);
+        R visitSetIndexExpr(SetIndex expr);
+        R visitLengthExpr(Length expr);
         R visitGroupingExpr(Grouping expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitVariableExpr(Variable expr);
         R visitUnaryExpr(Unary expr);
+        R visitSpawnExpr(Spawn expr);
+        R visitHoistedExpr(Hoisted expr);
     }
     static class Assign extends Expr {
         Assign(Token name, Expr value){
@@ -24,12 +33,16 @@ abstract class Expr {
         }
     final Token name;
     final Expr value;
+    // Set by the Resolver
+    Resolver.Access access;
+    int slot;
     }
     static class Binary extends Expr {
-        Binary(Expr left, Token operator, Expr right){
+        Binary(Expr left, Token operator, Expr right, int site){
             this.left = left;
             this.operator = operator;
             this.right = right;
+            this.site = site;
         }
 
         @Override
@@ -39,6 +52,67 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    final int site;
+    }
+    static class Call extends Expr {
+        Call(Expr callee, Token paren, List<Expr> arguments){
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCallExpr(this);
+        }
+    final Expr callee;
+    final Token paren;
+    final List<Expr> arguments;
+    }
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index){
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    }
+    static class SetIndex extends Expr {
+        SetIndex(Expr object, Token bracket, Expr index, Expr value){
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+    }
+    static class Length extends Expr {
+        Length(Expr object, Token name){
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitLengthExpr(this);
+        }
+    final Expr object;
+    final Token name;
     }
     static class Grouping extends Expr {
         Grouping(Expr expression){
@@ -87,6 +161,9 @@ abstract class Expr {
             return visitor.visitVariableExpr(this);
         }
     final Token name;
+    // Set by the Resolver
+    Resolver.Access access;
+    int slot;
     }
     static class Unary extends Expr {
         Unary(Token operator, Expr right){
@@ -101,6 +178,89 @@ abstract class Expr {
     final Token operator;
     final Expr right;
     }
+    static class Spawn extends Expr {
+        Spawn(Token keyword, Expr call){
+            this.keyword = keyword;
+            this.call = call;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSpawnExpr(this);
+        }
+    final Token keyword;
+    final Expr call;
+    }
+    static class Hoisted extends Expr {
+        Hoisted(Expr expression){
+            this.expression = expression;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitHoistedExpr(this);
+        }
+    final Expr expression;
+    // Set by the Optimizer
+    int slot;
+    }
+
+    // Hash-consing factories: structurally equal nodes built through
+    // the same Interner are one shared instance. Child nodes are
+    // compared by identity (so they should be interned too) and tokens
+    // by type and lexeme, ignoring the line. Only intern nodes whose
+    // behavior can't depend on which line their tokens came from.
+    static class Interner {
+        private final Map<List<Object>, Expr> nodes = new HashMap<>();
+
+        int size() {
+            return nodes.size();
+        }
+
+        private static Object key(Token token) {
+            return Arrays.asList(token.type, token.lexeme, token.literal);
+        }
+
+        Binary binary(Expr left, Token operator, Expr right, int site) {
+            List<Object> key = Arrays.asList("Binary", left, key(operator), right, site);
+            Expr node = nodes.get(key);
+            if (node == null) {
+                node = new Binary(left, operator, right, site);
+                nodes.put(key, node);
+            }
+            return (Binary)node;
+        }
+
+        Grouping grouping(Expr expression) {
+            List<Object> key = Arrays.asList("Grouping", expression);
+            Expr node = nodes.get(key);
+            if (node == null) {
+                node = new Grouping(expression);
+                nodes.put(key, node);
+            }
+            return (Grouping)node;
+        }
+
+        Literal literal(Object value) {
+            List<Object> key = Arrays.asList("Literal", value);
+            Expr node = nodes.get(key);
+            if (node == null) {
+                node = new Literal(value);
+                nodes.put(key, node);
+            }
+            return (Literal)node;
+        }
+
+        Unary unary(Token operator, Expr right) {
+            List<Object> key = Arrays.asList("Unary", key(operator), right);
+            Expr node = nodes.get(key);
+            if (node == null) {
+                node = new Unary(operator, right);
+                nodes.put(key, node);
+            }
+            return (Unary)node;
+        }
+    }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
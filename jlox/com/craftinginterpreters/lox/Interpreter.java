@@ -1,6 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.List;
+import java.util.Map;
 
 import com.craftinginterpreters.lox.Expr.Assign;
 import com.craftinginterpreters.lox.Expr.Logical;
@@ -14,13 +15,130 @@ import com.craftinginterpreters.lox.Stmt.While;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
-    private Environment environment = new Environment();
+    private static final Cell[] NO_CAPTURES = new Cell[0];
+
+    // What a Hoist leaves in a Hoisted node's slot when evaluating the
+    // expression ahead of the loop threw (see Optimizer)
+    static final Object UNCOMPUTED = new Object();
+
+    private final LoxContext context;
+    // Only globals are looked up by name; the Resolver gave every other
+    // variable a slot in `frame` or a Cell in `captures`. Spawned tasks
+    // share them; everything below is each task's own.
+    private final Environment globals;
+
+    // The frame of the running function (or of the script's top level)
+    // and the Cells its closure captured
+    private Object[] frame = new Object[0];
+    private Cell[] captures = NO_CAPTURES;
+
+    // A `return` sets these and every statement list and loop between it
+    // and the call stops early, so returning costs a field check per
+    // statement rather than throwing an exception through the Java stack
+    private boolean returning = false;
+    private Object returnValue = null;
+
+    // Execution fuel (see LoxContext.setFuel). Loop iterations, blocks
+    // and calls each burn a unit; unmetered, the tank holds
+    // Long.MAX_VALUE and never empties, so a poll is a decrement and a
+    // compare that always falls through.
+    private long fuel = Long.MAX_VALUE;
+
+    // Reported through the lox.Execute flight recorder event
+    private long statementsExecuted = 0;
+
+    // Approximate bytes allocated on the script's behalf over the life of
+    // the context (see LoxMemory), or of the task, and how many more it
+    // may allocate before reserving some of the context's heap cap (see
+    // LoxContext.setHeapCap); without a cap that never runs out
+    private long allocated = 0;
+    private long heap;
+
+    // Only set while a sampling profiler is attached
+    private SamplingProfiler profiler = null;
+
+    // Type feedback (see TypeFeedback): what this run records, and the
+    // operand types an earlier run's feedback says to guess, by site.
+    // Tasks share the guesses but don't record: a wrong guess only costs
+    // the guard, so a racy update to the array is harmless.
+    private TypeFeedback feedback = null;
+    private TypeFeedback.Guess[] guesses = null;
+
+    Interpreter(LoxContext context) {
+        this.context = context;
+        this.globals = new Environment();
+        this.heap = context.heap();
+        context.natives().install(globals);
+    }
+
+    // The interpreter for a task spawned from `parent` (see LoxTask)
+    private Interpreter(Interpreter parent) {
+        this.context = parent.context;
+        this.globals = parent.globals;
+        this.heap = context.heap();
+        this.guesses = parent.guesses;
+    }
+
+    void setProfiler(SamplingProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    void setFeedback(TypeFeedback previous, TypeFeedback recording) {
+        this.guesses = previous == null ? null : previous.guesses();
+        this.feedback = recording;
+    }
+
+    // The heap cap changed, and what's reserved went back with it
+    void resetHeap() {
+        this.heap = context.heap();
+    }
+
+    long bytesAllocated() {
+        return allocated;
+    }
+
+    // The globals as they are now, for a Snapshot
+    Map<String, Object> copyGlobals() {
+        return globals.copy();
+    }
+
+    // Defines the globals a Snapshot restored. `bytes` is what they hold,
+    // which counts as allocated here; whatever the prelude allocated and
+    // let go of along the way doesn't.
+    void restoreGlobals(Map<String, Object> values, long bytes) {
+        allocated += bytes;
+        heap -= bytes;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            globals.define(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // A function declared at the top level, which captures nothing
+    LoxFunction topLevelFunction(Stmt.Function declaration) {
+        return new LoxFunction(declaration, NO_CAPTURES, this);
+    }
+
+    long statementsExecuted() {
+        return statementsExecuted;
+    }
+
+    private void allocate(long bytes, Token at) {
+        allocated += bytes;
+        heap -= bytes;
+        if (heap < 0) heap += context.reserveHeap(-heap, at);
+    }
+
+    // Passes `value` through, counting what producing it allocated
+    private Object allocated(Object value, Token at) {
+        allocate(LoxMemory.sizeOf(value), at);
+        return value;
+    }
 
     Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         // Null and false are "falsey"
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
@@ -28,68 +146,124 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         // Make sure we don't cause nullpointer
         if (a == null) return false;
+        // 1 may be a Long on one side and a Double on the other
+        if (LoxNumbers.isNumber(a) && LoxNumbers.isNumber(b)) {
+            return LoxNumbers.equal(a, b);
+        }
 
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (LoxNumbers.isNumber(operand)) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (LoxNumbers.isNumber(left) && LoxNumbers.isNumber(right)) {
             return;
         }
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-        return text;
+        if (LoxNumbers.isNumber(object)) {
+            return LoxNumbers.stringify(object);
         }
         return object.toString();
     }
 
-    public void interpret(List<Stmt> statements) {
+    public void interpret(List<Stmt> statements, int frameSize) {
+        LoxEvents.Execute event = new LoxEvents.Execute();
+        event.begin();
+        long executedBefore = statementsExecuted;
+        long allocatedBefore = allocated;
+        frame = new Object[frameSize];
+        allocated += LoxMemory.array(frameSize);
+        heap -= LoxMemory.array(frameSize);
+        captures = NO_CAPTURES;
+        fuel = context.fuel();
         try{
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            event.runtimeError = error.getMessage();
+            event.runtimeErrorLine = error.token.line;
+            context.runtimeError(error);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.statements = statementsExecuted - executedBefore;
+            event.bytesAllocated = allocated - allocatedBefore;
+            event.commit();
         }
     }
 
     private void execute(Stmt stmt) {
-        stmt.accept(this);
+        statementsExecuted++;
+        if (profiler == null) {
+            stmt.accept(this);
+            return;
+        }
+        // Keep the profiler's statement stack in sync, even when a
+        // runtime error unwinds through us
+        profiler.enter(stmt);
+        try {
+            stmt.accept(this);
+        } finally {
+            profiler.exit();
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    // Runs a call with its arguments already in the first slots of `calleeFrame`
+    Object invoke(LoxFunction function, Object[] calleeFrame) {
+        Stmt.Function declaration = function.declaration;
+        boolean[] cellParams = declaration.cellParams;
+        for (int i = 0; i < cellParams.length; i++) {
+            if (!cellParams[i]) continue;
+            allocate(LoxMemory.CELL, declaration.name);
+            calleeFrame[i] = new Cell(calleeFrame[i]);
+        }
+
+        if (--fuel < 0) fuel = context.refuel(declaration.name);
+        Object[] previousFrame = frame;
+        Cell[] previousCaptures = captures;
+        frame = calleeFrame;
+        captures = function.closure;
+        if (profiler != null) profiler.enter(declaration);
         try {
-            this.environment = environment;
-            for (Stmt statement : statements) {
+            for (Stmt statement : declaration.body) {
                 execute(statement);
+                if (returning) break;
             }
         } finally {
-            this.environment = previous;
+            frame = previousFrame;
+            captures = previousCaptures;
+            if (profiler != null) profiler.exit();
         }
+
+        Object result = returnValue;
+        returning = false;
+        returnValue = null;
+        return result;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // Block scoping was settled by the Resolver, so there's no
+        // environment to create: the block's locals have their slots
+        if (--fuel < 0) fuel = context.refuel(stmt.brace);
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+            if (returning) break;
+        }
         return null;
     }
 
@@ -99,22 +273,176 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.access, stmt.slot, stmt.name, value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.access == Resolver.Access.CELL) {
+            // The function may capture itself, so its Cell has to exist
+            // before the closure is built
+            allocate(LoxMemory.CELL + LoxMemory.function(stmt.captures.length), stmt.name);
+            Cell cell = new Cell(null);
+            frame[stmt.slot] = cell;
+            cell.value = new LoxFunction(stmt, closure(stmt), this);
+            return null;
+        }
+        allocate(LoxMemory.function(stmt.captures.length), stmt.name);
+        define(stmt.access, stmt.slot, stmt.name, new LoxFunction(stmt, closure(stmt), this));
+        return null;
+    }
+
+    private Cell[] closure(Stmt.Function stmt) {
+        int[] sources = stmt.captures;
+        if (sources.length == 0) return NO_CAPTURES;
+        Cell[] cells = new Cell[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            // See Resolver.capture: a local of ours, or one we captured
+            int source = sources[i];
+            cells[i] = source >= 0 ? (Cell)frame[source] : captures[-1 - source];
+        }
+        return cells;
+    }
+
+    private void define(Resolver.Access access, int slot, Token name, Object value) {
+        switch (access) {
+            case LOCAL:
+                frame[slot] = value;
+                break;
+            case CELL:
+                // A fresh Cell each time the declaration runs, so closures
+                // made in different loop iterations don't share a variable
+                allocate(LoxMemory.CELL, name);
+                frame[slot] = new Cell(value);
+                break;
+            default:
+                allocate(LoxMemory.GLOBAL, name);
+                globals.define(name.lexeme, value);
+                break;
+        }
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        returnValue = stmt.value == null ? null : evaluate(stmt.value);
+        returning = true;
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        LoxEvents.Loop event = new LoxEvents.Loop();
+        event.begin();
+        long iterations = 0;
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            iterations++;
+            if (returning) break;
+            if (--fuel < 0) fuel = context.refuel(stmt.keyword);
+        }
+        event.end();
+        if (feedback != null) feedback.loop(stmt, iterations);
+        if (event.shouldCommit()) {
+            event.line = stmt.keyword.line;
+            event.iterations = iterations;
+            event.commit();
         }
         return null;
     }
 
+    @Override
+    public Void visitCountedStmt(Stmt.Counted stmt) {
+        // The counter has to start out as a Long and the limit has to be
+        // a number; anything else runs the loop exactly as written
+        Object counter = frame[stmt.slot];
+        if (!(counter instanceof Long)) return visitWhileStmt(stmt.loop);
+        Expr.Binary condition = (Expr.Binary)stmt.loop.condition;
+        // Nothing in the loop can change the limit (see Optimizer), so
+        // once is enough
+        Object limit = evaluate(condition.right);
+        if (!LoxNumbers.isNumber(limit)) return visitWhileStmt(stmt.loop);
+
+        LoxEvents.Loop event = new LoxEvents.Loop();
+        event.begin();
+        TokenType operator = condition.operator.type;
+        boolean up = operator == TokenType.LESS || operator == TokenType.LESS_EQUAL;
+        long bound = LoxNumbers.bound(operator, limit);
+        long i = (long)counter;
+        long iterations = 0;
+        boolean widened = false;
+        while (up ? i < bound : i > bound) {
+            // The counter only goes back into the frame for a body that
+            // reads it
+            if (stmt.readsCounter) {
+                // Boxing it may allocate, as `i = i + step` would have
+                frame[stmt.slot] = i;
+                if (i < -128 || i > 127) allocate(LoxMemory.NUMBER, stmt.loop.keyword);
+            }
+            execute(stmt.body);
+            iterations++;
+            if (returning) break;
+            if (--fuel < 0) fuel = context.refuel(stmt.loop.keyword);
+            i += stmt.step;
+            if (i > LoxNumbers.MAX_EXACT || i < -LoxNumbers.MAX_EXACT) {
+                widened = true;
+                break;
+            }
+        }
+        // Past 2^53 the counter becomes a double, so the loop carries on
+        // in the general form
+        frame[stmt.slot] = widened ? LoxNumbers.add(i - stmt.step, stmt.step) : i;
+        event.end();
+        if (feedback != null) feedback.loop(stmt.loop, iterations);
+        if (event.shouldCommit()) {
+            event.line = stmt.loop.keyword.line;
+            event.iterations = iterations;
+            event.commit();
+        }
+        if (widened) visitWhileStmt(stmt.loop);
+        return null;
+    }
+
+    @Override
+    public Void visitHoistStmt(Stmt.Hoist stmt) {
+        // The loop's invariant expressions, computed once before it runs.
+        // One that throws here is left UNCOMPUTED and evaluated in place
+        // instead, so the error surfaces where and when it always did.
+        for (Expr expr : stmt.hoisted) {
+            Expr.Hoisted hoisted = (Expr.Hoisted)expr;
+            try {
+                frame[hoisted.slot] = evaluate(hoisted.expression);
+            } catch (RuntimeError error) {
+                frame[hoisted.slot] = UNCOMPUTED;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitHoistedExpr(Expr.Hoisted expr) {
+        Object value = frame[expr.slot];
+        if (value != UNCOMPUTED) return value;
+        return evaluate(expr.expression);
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        switch (expr.access) {
+            case LOCAL:
+                frame[expr.slot] = value;
+                break;
+            case CELL:
+                ((Cell)frame[expr.slot]).value = value;
+                break;
+            case CAPTURE:
+                captures[expr.slot].value = value;
+                break;
+            default:
+                globals.assign(expr.name, value);
+                break;
+        }
         // Returning the value here allows assignment expressions
         // to have a value themselves
         // `print a = 2`; evaluates to 2
@@ -123,7 +451,130 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        switch (expr.access) {
+            case LOCAL:
+                return frame[expr.slot];
+            case CELL:
+                return ((Cell)frame[expr.slot]).value;
+            case CAPTURE:
+                return captures[expr.slot].value;
+            default:
+                return globals.get(expr.name);
+        }
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        // Every Lox call goes through here, so this is where runaway
+        // recursion becomes a Lox error instead of killing the JVM thread.
+        // The frame that catches it is the innermost call with stack left to
+        // throw; the frames above only see the RuntimeError.
+        try {
+            return call(expr);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+    }
+
+    private Object call(Expr.Call expr) {
+        Object callee = evaluate(expr.callee);
+        List<Expr> argumentExprs = expr.arguments;
+        int count = argumentExprs.size();
+
+        // The common case: a Lox function called with the right number of
+        // arguments, which are evaluated straight into its new frame
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction)callee;
+            if (count == function.declaration.params.size()) {
+                allocate(LoxMemory.array(function.declaration.frameSize), expr.paren);
+                Object[] calleeFrame = new Object[function.declaration.frameSize];
+                for (int i = 0; i < count; i++) {
+                    calleeFrame[i] = evaluate(argumentExprs.get(i));
+                }
+                return invoke(function, calleeFrame);
+            }
+        }
+
+        if (callee instanceof NativeFunction) {
+            return callNative((NativeFunction)callee, expr.paren, argumentExprs);
+        }
+
+        // Arguments are evaluated before anything is checked, like operands
+        allocate(LoxMemory.array(count), expr.paren);
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
+        }
+        return allocated(callable(callee, count, expr.paren).call(arguments), expr.paren);
+    }
+
+    // `callee` as something `count` arguments can be passed to
+    static LoxCallable callable(Object callee, int count, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable callable = (LoxCallable)callee;
+        if (count != callable.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                callable.arity() + " arguments but got " + count + ".");
+        }
+        return callable;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object array = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return allocated(LoxArray.get(expr.bracket, array, index), expr.bracket);
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        Object array = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        LoxArray.set(expr.bracket, array, index, value);
+        return value;
+    }
+
+    @Override
+    public Object visitLengthExpr(Expr.Length expr) {
+        return allocated(LoxArray.length(expr.name, evaluate(expr.object)), expr.name);
+    }
+
+    @Override
+    public Object visitSpawnExpr(Expr.Spawn expr) {
+        // The callee and arguments are evaluated and checked here, in the
+        // spawning task; only the call itself runs on the new thread
+        Expr.Call call = (Expr.Call)expr.call;
+        Object callee = evaluate(call.callee);
+        int count = call.arguments.size();
+        allocate(LoxMemory.array(count), call.paren);
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(call.arguments.get(i));
+        }
+        LoxCallable callable = callable(callee, count, call.paren);
+
+        Interpreter task = new Interpreter(this);
+        return context.spawn(() -> task.runTask(callable, arguments, call.paren));
+    }
+
+    // A spawned call is the whole of its task's program
+    private Object runTask(LoxCallable callable, Object[] arguments, Token paren) {
+        fuel = context.fuel();
+        try {
+            if (callable instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction)callable;
+                Object[] calleeFrame = new Object[function.declaration.frameSize];
+                System.arraycopy(arguments, 0, calleeFrame, 0, arguments.length);
+                allocate(LoxMemory.array(calleeFrame.length), paren);
+                return invoke(function, calleeFrame);
+            }
+            return callNative((NativeFunction)callable, arguments, paren);
+        } finally {
+            context.taskFinished(allocated, fuel, heap);
+        }
     }
 
     @Override
@@ -145,10 +596,77 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        context.out.println(stringify(value));
         return null;
     }
 
+    // Natives with a primitive signature get their arguments as doubles,
+    // with no Object[] in between
+    private Object callNative(NativeFunction function, Token paren, List<Expr> argumentExprs) {
+        int count = argumentExprs.size();
+        if (count == function.arity()) {
+            if (function instanceof NativeFunction.Unary) {
+                Object x = evaluate(argumentExprs.get(0));
+                return allocated(callUnary((NativeFunction.Unary)function, paren, x), paren);
+            }
+            if (function instanceof NativeFunction.Binary) {
+                Object x = evaluate(argumentExprs.get(0));
+                Object y = evaluate(argumentExprs.get(1));
+                return allocated(callBinary((NativeFunction.Binary)function, paren, x, y), paren);
+            }
+            if (function instanceof NativeFunction.Nullary) {
+                return allocated(callNullary((NativeFunction.Nullary)function), paren);
+            }
+        }
+
+        allocate(LoxMemory.array(count), paren);
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
+        }
+        if (count != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                function.arity() + " arguments but got " + count + ".");
+        }
+        return callNative(function, arguments, paren);
+    }
+
+    // Calls a native with its arguments checked and in hand, counting what
+    // it allocated. Natives that allocate by size reserve it up front, so
+    // going over the heap cap stops them before the allocation.
+    private Object callNative(NativeFunction function, Object[] arguments, Token paren) {
+        try {
+            if (function instanceof NativeFunction.Allocating) {
+                return ((NativeFunction.Allocating)function).function.call(arguments,
+                    bytes -> allocate(bytes, paren));
+            }
+            return allocated(function.call(arguments), paren);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    // The primitive natives, called with arguments already evaluated.
+    // Their results are numbers like any other: floor(2.5) is a Long.
+    static Object callUnary(NativeFunction.Unary function, Token paren, Object x) {
+        return LoxNumbers.of(function.function.applyAsDouble(nativeNumber(function, paren, x)));
+    }
+
+    static Object callBinary(NativeFunction.Binary function, Token paren, Object x, Object y) {
+        double left = nativeNumber(function, paren, x);
+        double right = nativeNumber(function, paren, y);
+        return LoxNumbers.of(function.function.applyAsDouble(left, right));
+    }
+
+    static Object callNullary(NativeFunction.Nullary function) {
+        return LoxNumbers.of(function.function.getAsDouble());
+    }
+
+    private static double nativeNumber(NativeFunction function, Token paren, Object argument) {
+        if (LoxNumbers.isNumber(argument)) return LoxNumbers.toDouble(argument);
+        throw new RuntimeError(paren, function.notANumber().getMessage());
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -176,14 +694,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        return allocated(unary(expr.operator, evaluate(expr.right)), expr.operator);
+    }
 
-        switch (expr.operator.type) {
+    // The operators themselves are static so the Optimizer can fold
+    // constant operands, and SwitchInterpreter evaluate them, with exactly
+    // the same semantics
+    static Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                checkNumberOperand(operator, right);
+                return LoxNumbers.negate(right);
             default:
                 break;
         }
@@ -198,45 +721,67 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         // types are valid for the operators in question.
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        if (feedback != null) feedback.binary(expr, left, right);
+        if (guesses != null && expr.site < guesses.length && guesses[expr.site] != null) {
+            Object result = guesses[expr.site].apply(expr.operator.type, left, right);
+            if (result != null) return allocated(result, expr.operator);
+            deoptimize(expr);
+        }
+        return allocated(binary(expr.operator, left, right), expr.operator);
+    }
+
+    // The operands weren't what the type feedback promised. Stop guessing
+    // for this operator; it's general from here on.
+    private void deoptimize(Expr.Binary expr) {
+        LoxEvents.Deoptimize event = new LoxEvents.Deoptimize();
+        if (event.shouldCommit()) {
+            event.line = expr.operator.line;
+            event.operator = expr.operator.lexeme;
+            event.guess = guesses[expr.site].name();
+            event.commit();
+        }
+        guesses[expr.site] = null;
+    }
 
-        switch (expr.operator.type) {
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.greater(left, right);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.greaterEqual(left, right);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.less(left, right);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.lessEqual(left, right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.subtract(left, right);
             case PLUS:
                 // This operator is overloaded
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                if (LoxNumbers.isNumber(left) && LoxNumbers.isNumber(right)) {
+                    return LoxNumbers.add(left, right);
                 }
                 if (left instanceof String && right instanceof String) {
                     return (String)left + (String)right;
                 }
                 throw new RuntimeError(
-                    expr.operator,
+                    operator,
                     "Operands must either be two numbers or two strings"
                 );
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.divide(left, right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                checkNumberOperands(operator, left, right);
+                return LoxNumbers.multiply(left, right);
         }
         return null;
     }
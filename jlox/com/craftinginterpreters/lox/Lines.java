@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+// Finds the source line a node starts on, for tools (like the profiler)
+// that need to point back into the script.
+// Returns -1 when the node carries no token at all, e.g. a bare literal.
+class Lines implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+    private static final Lines INSTANCE = new Lines();
+
+    static int of(Stmt stmt) {
+        return stmt.accept(INSTANCE);
+    }
+
+    static int of(Expr expr) {
+        return expr.accept(INSTANCE);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        return stmt.brace.line;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return of(stmt.expression);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitCountedStmt(Stmt.Counted stmt) {
+        return stmt.loop.keyword.line;
+    }
+
+    @Override
+    public Integer visitHoistStmt(Stmt.Hoist stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        return of(expr.callee);
+    }
+
+    @Override
+    public Integer visitIndexExpr(Expr.Index expr) {
+        return expr.bracket.line;
+    }
+
+    @Override
+    public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+        return expr.bracket.line;
+    }
+
+    @Override
+    public Integer visitLengthExpr(Expr.Length expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitSpawnExpr(Expr.Spawn expr) {
+        return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return of(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        return -1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitHoistedExpr(Expr.Hoisted expr) {
+        return of(expr.expression);
+    }
+}
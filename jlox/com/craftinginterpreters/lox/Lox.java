@@ -3,39 +3,222 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 
 
 public class Lox {
 
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // The command line runs everything in one context,
+    // so (Lox) global variables survive between REPL lines.
+    // Both are created once the options have been read.
+    private static LoxEngine engine;
+    private static LoxContext context;
+
+    // Cleared by --no-cache to always parse from source
+    private static boolean usePrecompiled = true;
+
+    // Cleared by --no-optimize to run scripts exactly as parsed
+    private static boolean optimize = true;
+
+    // Set by --stream: run the script (or stdin) while it's being read,
+    // see LoxPipeline
+    private static boolean stream = false;
+
+    // Set by --bench: time the script instead of running it once
+    private static boolean bench = false;
+
+    // Set by --pgo: guess operand types from what the script's previous
+    // run saw, and record what this one sees for the next (see TypeFeedback)
+    private static boolean pgo = false;
+
+    // Set by --profile; samples are written out when the script finishes
+    private static SamplingProfiler profiler = null;
+    private static String profileOutput = null;
+
+    // Set by --batch: a directory of scripts or a file listing them
+    private static String batchSource = null;
+
+    // Set by --fuel: stop a script after this many loop iterations,
+    // blocks and calls (see LoxContext.setFuel)
+    private static long fuel = 0;
+
+    // Set by --heap-cap: stop a script once it has allocated this many
+    // bytes (see LoxContext.setHeapCap)
+    private static long heapCap = 0;
+
+    // Set by --prelude: a script whose globals are restored from its
+    // snapshot, or that runs first (see LoxContext.runPrelude)
+    private static String prelude = null;
+
+    // Set by --max-errors: how many diagnostics to print before only
+    // counting the rest (see Diagnostics)
+    private static int maxErrors = Diagnostics.UNLIMITED;
 
-    // We store the interpreter as an object field
-    // so that later we can store (Lox) global variables in it
-    private static final Interpreter interpreter = new Interpreter();
     public static void main(String[] args) throws IOException {
-        System.out.println("In main");
-        if (args.length > 1){
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            System.out.println("Running file");
-            runFile(args[0]);
+        long profileInterval = SamplingProfiler.DEFAULT_INTERVAL_MICROS;
+        int profileDepth = SamplingProfiler.DEFAULT_MAX_DEPTH;
+        int warmup = LoxBench.DEFAULT_WARMUP;
+        int iterations = LoxBench.DEFAULT_ITERATIONS;
+
+        // Options come before the script path
+        int argIndex = 0;
+        while (argIndex < args.length && args[argIndex].startsWith("--")) {
+            String option = args[argIndex++];
+            if (option.equals("--no-cache")) {
+                usePrecompiled = false;
+                continue;
+            }
+            if (option.equals("--no-optimize")) {
+                optimize = false;
+                continue;
+            }
+            if (option.equals("--stream")) {
+                stream = true;
+                continue;
+            }
+            if (option.equals("--bench")) {
+                bench = true;
+                continue;
+            }
+            if (option.equals("--pgo")) {
+                pgo = true;
+                continue;
+            }
+
+            if (argIndex == args.length) usage();
+            String value = args[argIndex++];
+            try {
+                switch (option) {
+                    case "--profile": profileOutput = value; break;
+                    case "--profile-interval": profileInterval = Long.parseLong(value); break;
+                    case "--profile-depth": profileDepth = Integer.parseInt(value); break;
+                    case "--batch": batchSource = value; break;
+                    case "--fuel": fuel = Long.parseLong(value); break;
+                    case "--heap-cap": heapCap = Long.parseLong(value); break;
+                    case "--max-errors": maxErrors = Integer.parseInt(value); break;
+                    case "--prelude": prelude = value; break;
+                    case "--warmup": warmup = Integer.parseInt(value); break;
+                    case "--iterations": iterations = Integer.parseInt(value); break;
+                    default: usage();
+                }
+            } catch (NumberFormatException e) {
+                usage();
+            }
+        }
+        if (fuel < 0 || heapCap < 0 || maxErrors < 0 || warmup < 0 || iterations < 1) usage();
+
+        engine = new LoxEngine(LoxEngine.DEFAULT_CACHE_SIZE, optimize);
+        engine.setMaxDiagnostics(maxErrors);
+        context = engine.newContext(System.out, System.err);
+        context.setFuel(fuel, LoxContext.OutOfFuel.ABORT);
+        context.setHeapCap(heapCap);
+
+        int remaining = args.length - argIndex;
+        if (batchSource != null) {
+            // Each script in a batch has its own context, which the
+            // profiler can't follow and --fuel and --heap-cap don't reach
+            if (remaining != 0 || profileOutput != null || fuel != 0 || heapCap != 0 || stream
+                    || bench || pgo || prelude != null) {
+                usage();
+            }
+            runBatch(batchSource);
+            return;
+        }
+
+        if (bench) {
+            // Every iteration gets a fresh context of its own
+            if (remaining != 1 || profileOutput != null || fuel != 0 || heapCap != 0 || stream
+                    || pgo || prelude != null) {
+                usage();
+            }
+            LoxBench benchmark = new LoxBench(engine, warmup, iterations);
+            System.exit(benchmark.run(Paths.get(args[argIndex]), System.out, System.err));
+        }
+
+        if (profileOutput != null) {
+            profiler = new SamplingProfiler(profileInterval, profileDepth);
+            context.setProfiler(profiler);
+            profiler.start();
+        }
+
+        // Feedback belongs to one script file, and would count the
+        // prelude's operators as the script's
+        if (remaining > 1 || (pgo && (remaining == 0 || stream || prelude != null))) {
+            usage();
+        }
+        if (prelude != null && !context.runPrelude(Paths.get(prelude), usePrecompiled)) {
+            finishProfile();
+            System.exit(context.hadError() ? 65 : 70);
+        }
+
+        if (stream) {
+            // Without a script, stream whatever is piped into stdin
+            runStreaming(remaining == 1
+                ? Files.newBufferedReader(Paths.get(args[argIndex]), Charset.defaultCharset())
+                : new InputStreamReader(System.in));
+        } else if (remaining == 1) {
+            runFile(args[argIndex]);
         } else{
-            System.out.println("Running prompt");
             runPrompt();
+            finishProfile();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--no-cache] [--no-optimize] [--stream | --pgo]" +
+            " [--fuel <units>] [--heap-cap <bytes>] [--max-errors <count>] [--prelude <script>]" +
+            " [--profile <out.folded> [--profile-interval <micros>] [--profile-depth <frames>]]" +
+            " [script]");
+        System.out.println("       jlox [--no-cache] [--no-optimize] [--max-errors <count>]" +
+            " --batch <dir | list file>");
+        System.out.println("       jlox [--no-optimize] --bench [--warmup <runs>] [--iterations <runs>]" +
+            " script");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        Path script = Paths.get(path);
+        String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+        // The feedback and the .loxc are both keyed by this
+        byte[] hash = SourceHash.digest(source);
+        TypeFeedback recording = null;
+        String sourceHash = null;
+        if (pgo) {
+            sourceHash = SourceHash.hex(hash);
+            recording = new TypeFeedback();
+            context.setFeedback(
+                TypeFeedback.read(TypeFeedback.pathFor(script), sourceHash), recording);
+        }
+
+        context.execute(engine.compileFile(script, source, hash, usePrecompiled));
+        finishProfile();
+        // A runtime error doesn't make what was seen up to it any less true
+        if (recording != null && !context.hadError()) {
+            recording.write(TypeFeedback.pathFor(script), sourceHash);
+        }
+        if (context.hadError()) System.exit(65);
+        if (context.hadRuntimeError()) System.exit(70);
+    }
+
+    private static void runStreaming(Reader input) throws IOException {
+        try (Reader reader = input) {
+            context.runStreaming(reader);
+        }
+        finishProfile();
+        if (context.hadError()) System.exit(65);
+        if (context.hadRuntimeError()) System.exit(70);
+    }
+
+    private static void runBatch(String source) throws IOException {
+        LoxBatch batch = new LoxBatch(engine, usePrecompiled);
+        int status = batch.run(LoxBatch.scripts(Paths.get(source)), System.out, System.err);
+        System.exit(status);
     }
 
     private static void runPrompt() throws IOException {
@@ -46,43 +229,19 @@ public class Lox {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
-            hadError = false;
+            context.run(line);
+            context.clearErrors();
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        // Don't continue to subsequent phases if there is a parsing error
-        if (hadError) return;
-        interpreter.interpret(statements);
-        // System.out.println(new AstPrinter().print(expression));
-
-    }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    static void error (Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static void finishProfile() throws IOException {
+        if (profiler == null) return;
+        profiler.stop();
+        try (Writer writer = Files.newBufferedWriter(
+                Paths.get(profileOutput), StandardCharsets.UTF_8)) {
+            profiler.writeCollapsed(writer);
         }
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + 
-            "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
-    }
-
-    static void report(int line, String where, String message) {
-        System.err.printf("[line %s] Error %s: %s\n", line, where, message);
-        hadError = true;
+        System.err.printf("Wrote %d samples to %s\n",
+            profiler.sampleCount(), profileOutput);
     }
 }
@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+// A fixed-length array of numbers, made by the `array(length)` native and
+// read and written with `a[i]`, `a[i] = x` and `a.length`.
+//
+// The elements are a double[], so each one costs 8 bytes. Keeping the
+// same numbers in numbered globals costs a map entry, a key string and a
+// boxed number apiece, around 50 bytes. An element is boxed only while a
+// script is holding it. The bulk natives (fill, sum, map) loop over the
+// double[] in Java and never box at all.
+//
+// Storing a number and reading it back gives the same number: a Long
+// within 2^53 is an exact double, and reading gives back a Long whenever
+// LoxNumbers.of() would.
+final class LoxArray {
+
+    // The most elements a JVM array can reliably hold
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    final double[] values;
+
+    LoxArray(int length) {
+        this.values = new double[length];
+    }
+
+    // The checks below report at the closing bracket (or the `length`),
+    // the way calls report at their closing paren
+
+    static Object get(Token bracket, Object array, Object index) {
+        LoxArray checked = check(bracket, array);
+        return LoxNumbers.of(checked.values[checked.index(bracket, index)]);
+    }
+
+    static void set(Token bracket, Object array, Object index, Object value) {
+        LoxArray checked = check(bracket, array);
+        int at = checked.index(bracket, index);
+        if (!LoxNumbers.isNumber(value)) {
+            throw new RuntimeError(bracket, "Array elements must be numbers.");
+        }
+        checked.values[at] = LoxNumbers.toDouble(value);
+    }
+
+    static Object length(Token name, Object array) {
+        if (!(array instanceof LoxArray)) {
+            throw new RuntimeError(name, "Only arrays have a length.");
+        }
+        return (long)((LoxArray)array).values.length;
+    }
+
+    private static LoxArray check(Token bracket, Object array) {
+        if (array instanceof LoxArray) return (LoxArray)array;
+        throw new RuntimeError(bracket, "Only arrays can be indexed.");
+    }
+
+    private int index(Token bracket, Object index) {
+        if (index instanceof Long) {
+            long at = (long)index;
+            if (at >= 0 && at < values.length) return (int)at;
+        } else if (index instanceof Double) {
+            // Arithmetic that widened to a Double (0.5 + 1.5) can still
+            // land on a whole number, which indexes like the Long would
+            double at = (double)index;
+            if (at != Math.rint(at)) {
+                throw new RuntimeError(bracket, "Array index must be an integer.");
+            }
+            if (at >= 0 && at < values.length) return (int)at;
+        } else {
+            throw new RuntimeError(bracket, "Array index must be an integer.");
+        }
+        String at = index instanceof Long ? index.toString() : LoxNumbers.stringify(index);
+        throw new RuntimeError(bracket, "Array index " + at +
+            " is out of bounds for length " + values.length + ".");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) text.append(", ");
+            text.append(LoxNumbers.stringify(LoxNumbers.of(values[i])));
+        }
+        return text.append("]").toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// `jlox --batch <dir|list>`: runs many script files in one JVM.
+//
+// The scripts run side by side on a work-stealing pool with one worker per
+// core. They share the engine (and so its compiled-script cache), but each
+// gets its own LoxContext writing into its own buffers. Nothing a script
+// prints reaches the real stdout/stderr until it has finished; then its
+// output is written out in one piece, in the order the files were given,
+// under a "==> path <==" header.
+//
+// Once every script has run, a status/timing line per file goes to stderr.
+class LoxBatch {
+
+    private static class Result {
+        final Path path;
+        final int status;
+        final long nanos;
+        final byte[] out;
+        final byte[] err;
+
+        Result(Path path, int status, long nanos, byte[] out, byte[] err) {
+            this.path = path;
+            this.status = status;
+            this.nanos = nanos;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private final LoxEngine engine;
+    private final boolean precompiled;
+
+    LoxBatch(LoxEngine engine, boolean precompiled) {
+        this.engine = engine;
+        this.precompiled = precompiled;
+    }
+
+    // A directory means every .lox file under it; anything else is read
+    // as a list of script paths, one per line
+    static List<Path> scripts(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.walk(source)) {
+                return files
+                    .filter(path -> path.toString().endsWith(".lox"))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        for (String line : Files.readAllLines(source)) {
+            line = line.trim();
+            if (!line.isEmpty()) scripts.add(Paths.get(line));
+        }
+        return scripts;
+    }
+
+    // Runs every script and returns the exit status for the whole batch:
+    // 0 if they all succeeded, otherwise the highest status of any script
+    int run(List<Path> scripts, PrintStream out, PrintStream err) {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newWorkStealingPool(
+            Runtime.getRuntime().availableProcessors());
+        List<CompletableFuture<Result>> pending = new ArrayList<>();
+        for (Path script : scripts) {
+            pending.add(CompletableFuture.supplyAsync(() -> runOne(script), pool));
+        }
+
+        // Print in submission order; later scripts keep running meanwhile
+        List<Result> results = new ArrayList<>();
+        for (CompletableFuture<Result> future : pending) {
+            Result result = future.join();
+            results.add(result);
+            out.println("==> " + result.path + " <==");
+            out.write(result.out, 0, result.out.length);
+            out.flush();
+            err.write(result.err, 0, result.err.length);
+            err.flush();
+        }
+        pool.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        int status = 0;
+        int failures = 0;
+        err.printf("%-6s %10s  %s%n", "status", "ms", "script");
+        for (Result result : results) {
+            err.printf("%-6s %10.1f  %s%n",
+                result.status == 0 ? "ok" : String.valueOf(result.status),
+                result.nanos / 1e6, result.path);
+            if (result.status != 0) failures++;
+            status = Math.max(status, result.status);
+        }
+        err.printf("%d scripts, %d failed, %.1f ms wall time%n",
+            results.size(), failures, elapsed / 1e6);
+        return status;
+    }
+
+    private Result runOne(Path path) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(outBytes, false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(errBytes, false, StandardCharsets.UTF_8);
+        LoxContext context = engine.newContext(out, err);
+
+        long start = System.nanoTime();
+        int status;
+        try {
+            context.execute(engine.compileFile(path, precompiled));
+            status = context.hadError() ? 65 : context.hadRuntimeError() ? 70 : 0;
+        } catch (IOException e) {
+            err.println("Could not read " + path + ".");
+            status = 66;
+        }
+        long nanos = System.nanoTime() - start;
+
+        out.flush();
+        err.flush();
+        return new Result(path, status, nanos, outBytes.toByteArray(), errBytes.toByteArray());
+    }
+}
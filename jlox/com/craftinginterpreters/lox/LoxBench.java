@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// `jlox --bench [--warmup N] [--iterations M] script.lox`: times a script
+// without setting up JMH.
+//
+// Every iteration compiles the script from scratch, bypassing the script
+// cache, and runs it in a fresh LoxContext whose output is thrown away.
+// Warmup iterations give the JIT a chance to compile the interpreter and
+// aren't counted. For the measured ones we report percentiles of each
+// phase:
+//   scan     source text to tokens
+//   parse    tokens to statements
+//   resolve  resolving and (unless --no-optimize) optimizing
+//   execute  running the statements
+// plus throughput (tokens per second scanned, statements per second
+// executed, both at the median) and the bytes allocated per run. The
+// allocation figure comes from the JVM, counting everything the thread
+// allocated, and from the interpreter's own accounting of what the script
+// asked for (see LoxMemory).
+class LoxBench {
+
+    static final int DEFAULT_WARMUP = 5;
+    static final int DEFAULT_ITERATIONS = 20;
+
+    private static final String[] PHASES = {"scan", "parse", "resolve", "execute", "total"};
+
+    private final LoxEngine engine;
+    private final int warmup;
+    private final int iterations;
+
+    // Set when a run fails; see run()
+    private int status = 0;
+
+    LoxBench(LoxEngine engine, int warmup, int iterations) {
+        this.engine = engine;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    // What one iteration measured
+    private static class Run {
+        final long[] nanos = new long[PHASES.length];
+        int tokens;
+        long statements;
+        long jvmBytes;
+        long scriptBytes;
+    }
+
+    // Returns the exit status: 0, or 65/70 when the script doesn't
+    // compile or fails at runtime (no timings are reported then)
+    int run(Path path, PrintStream out, PrintStream err) throws IOException {
+        String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+
+        for (int i = 0; i < warmup; i++) {
+            if (runOnce(source, err) == null) return status;
+        }
+        List<Run> runs = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            Run run = runOnce(source, err);
+            if (run == null) return status;
+            runs.add(run);
+        }
+
+        report(path, runs, out);
+        return 0;
+    }
+
+    private Run runOnce(String source, PrintStream err) {
+        Run run = new Run();
+        Diagnostics diagnostics = engine.newDiagnostics();
+        long jvmBytesBefore = threadAllocatedBytes();
+
+        long start = System.nanoTime();
+        List<Token> tokens = new Scanner(source, diagnostics).scanTokens();
+        long scanned = System.nanoTime();
+        List<Stmt> statements = new Parser(tokens, diagnostics).parse();
+        long parsed = System.nanoTime();
+        Script script = engine.resolved(statements, diagnostics, tokens.size());
+        long resolved = System.nanoTime();
+        if (script.hasErrors()) {
+            diagnostics.print(err);
+            status = 65;
+            return null;
+        }
+
+        // Errors are kept, in case there's one to show
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(
+            new PrintStream(OutputStream.nullOutputStream()),
+            new PrintStream(errBytes, true, StandardCharsets.UTF_8));
+        context.execute(script);
+        long executed = System.nanoTime();
+        if (context.hadRuntimeError()) {
+            err.print(errBytes.toString(StandardCharsets.UTF_8));
+            status = 70;
+            return null;
+        }
+
+        run.jvmBytes = jvmBytesBefore < 0 ? -1 : threadAllocatedBytes() - jvmBytesBefore;
+        run.scriptBytes = context.bytesAllocated();
+        run.nanos[0] = scanned - start;
+        run.nanos[1] = parsed - scanned;
+        run.nanos[2] = resolved - parsed;
+        run.nanos[3] = executed - resolved;
+        run.nanos[4] = executed - start;
+        run.tokens = tokens.size();
+        run.statements = context.statementsExecuted();
+        return run;
+    }
+
+    private void report(Path path, List<Run> runs, PrintStream out) {
+        Run first = runs.get(0);
+        out.printf("%s: %d iterations after %d warmup, %d tokens, %d statements executed%n",
+            path, runs.size(), warmup, first.tokens, first.statements);
+        out.printf("%-8s %10s %10s %10s %10s%n", "phase", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long[][] sorted = new long[PHASES.length][runs.size()];
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            for (int i = 0; i < runs.size(); i++) {
+                sorted[phase][i] = runs.get(i).nanos[phase];
+            }
+            Arrays.sort(sorted[phase]);
+            out.printf("%-8s %10.3f %10.3f %10.3f %10.3f%n", PHASES[phase],
+                percentile(sorted[phase], 50) / 1e6, percentile(sorted[phase], 90) / 1e6,
+                percentile(sorted[phase], 99) / 1e6, sorted[phase][runs.size() - 1] / 1e6);
+        }
+
+        out.printf("tokens/s      %14.0f%n", first.tokens / (percentile(sorted[0], 50) / 1e9));
+        out.printf("statements/s  %14.0f%n", first.statements / (percentile(sorted[3], 50) / 1e9));
+
+        long[] jvmBytes = runs.stream().mapToLong(run -> run.jvmBytes).sorted().toArray();
+        long[] scriptBytes = runs.stream().mapToLong(run -> run.scriptBytes).sorted().toArray();
+        if (jvmBytes[0] >= 0) {
+            out.printf("bytes/run     %14d allocated (p50, JVM)%n", percentile(jvmBytes, 50));
+        }
+        out.printf("bytes/run     %14d allocated by the script (p50, estimated)%n",
+            percentile(scriptBytes, 50));
+    }
+
+    // Nearest-rank percentile of a sorted array
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    // -1 when the JVM can't tell
+    private static long threadAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// Anything a Lox call expression can call
+interface LoxCallable {
+
+    int arity();
+
+    // `arguments` has exactly arity() elements; the caller checks that
+    Object call(Object[] arguments);
+}
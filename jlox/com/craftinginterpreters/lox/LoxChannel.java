@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+// A channel between tasks (see LoxTask), made by the `channel(capacity)`
+// native. send() blocks while the channel holds `capacity` values and
+// receive() while it's empty; values come out in the order they went in.
+// With a capacity of 0, every send waits for a receive to take its value.
+final class LoxChannel {
+
+    // Queues can't hold null, so nil travels as this
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> values;
+
+    LoxChannel(int capacity) {
+        this.values = capacity == 0
+            ? new SynchronousQueue<>()
+            : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) throws InterruptedException {
+        values.put(value == null ? NIL : value);
+    }
+
+    Object receive() throws InterruptedException {
+        Object value = values.take();
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// The thin side of LoxDaemon: sends one script, copies the output back to
+// our own stdout/stderr and exits with the script's status.
+//
+//   java com.craftinginterpreters.lox.LoxClient <socket> <script>
+//   java com.craftinginterpreters.lox.LoxClient <socket> -    (source on stdin)
+//
+// This class deliberately touches nothing else in the interpreter, so the
+// client JVM only has to load a handful of classes before it can connect.
+public class LoxClient {
+
+    // Runs a script file through the daemon listening on `socket`.
+    // Paths are resolved here, since the daemon has its own working directory.
+    public static int runFile(Path socket, Path script,
+            OutputStream stdout, OutputStream stderr) throws IOException {
+        byte[] path = script.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        return request(socket, LoxDaemon.REQUEST_PATH, path, stdout, stderr);
+    }
+
+    public static int runSource(Path socket, String source,
+            OutputStream stdout, OutputStream stderr) throws IOException {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        return request(socket, LoxDaemon.REQUEST_SOURCE, bytes, stdout, stderr);
+    }
+
+    private static int request(Path socket, byte kind, byte[] payload,
+            OutputStream stdout, OutputStream stderr) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeByte(kind);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            byte[] buffer = new byte[8192];
+            for (;;) {
+                byte frame = in.readByte();
+                if (frame == LoxDaemon.EXIT) return in.readInt();
+
+                OutputStream target = frame == LoxDaemon.STDERR ? stderr : stdout;
+                int remaining = in.readInt();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 0) throw new IOException("Daemon closed the connection.");
+                    target.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: LoxClient <socket> <script | ->");
+            System.exit(64);
+        }
+        Path socket = Paths.get(args[0]);
+        int status;
+        if (args[1].equals("-")) {
+            String source = new String(System.in.readAllBytes(), StandardCharsets.UTF_8);
+            status = runSource(socket, source, System.out, System.err);
+        } else {
+            status = runFile(socket, Paths.get(args[1]), System.out, System.err);
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,297 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// One isolated Lox "session": its own globals, its own output streams and
+// its own diagnostics. A context is meant to be used by one thread at a
+// time; run as many contexts side by side as you like.
+public class LoxContext {
+
+    private final LoxEngine engine;
+    final PrintStream out;
+    final PrintStream err;
+
+    // We store the interpreter as an object field
+    // so that global variables survive between calls to run()
+    private final Interpreter interpreter;
+
+    // What the runs so far reported to err, up to the engine's cap
+    private final Diagnostics diagnostics;
+
+    // What a metered context does when its fuel runs out (see setFuel)
+    public enum OutOfFuel {
+        // Give the thread up, then carry on with a full tank
+        YIELD,
+        // Stop the script with a runtime error
+        ABORT
+    }
+
+    // Tasks spawned by the script, oldest first, until waited for
+    private final Queue<LoxTask> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong taskBytes = new AtomicLong();
+
+    // Zero means unmetered
+    private long fuelBudget = 0;
+    private OutOfFuel outOfFuel = OutOfFuel.ABORT;
+
+    // The fuel (see setFuel) and heap (see setHeapCap) every interpreter
+    // running in the context draws from. Each takes a chunk at a time into
+    // a tank of its own, so the hot paths stay plain field updates and the
+    // atomics are only touched once per chunk.
+    private static final long FUEL_CHUNK = 1024;
+    private static final long HEAP_CHUNK = 4 * 1024;
+    private final AtomicLong fuelLeft = new AtomicLong();
+    private final AtomicLong heapLeft = new AtomicLong();
+    // Zero means no cap
+    private long heapCap = 0;
+
+    LoxContext(LoxEngine engine, PrintStream out, PrintStream err) {
+        this.engine = engine;
+        this.out = out;
+        this.err = err;
+        this.diagnostics = engine.newDiagnostics();
+        this.interpreter = new Interpreter(this);
+    }
+
+    public void run(String source) {
+        execute(engine.compile(source));
+    }
+
+    // Returns once the script, and every task it spawned, has finished
+    public void execute(Script script) {
+        execute(script, true);
+    }
+
+    void execute(Script script, boolean awaitTasks) {
+        // Don't continue to subsequent phases if there is a parsing error
+        if (!script.diagnostics().isEmpty()) compileDiagnostics(script.diagnostics());
+        if (script.hasErrors()) return;
+        fuelLeft.set(fuelBudget);
+        interpreter.interpret(script.statements, script.frameSize);
+        if (awaitTasks) awaitTasks();
+    }
+
+    // Runs the prelude script at `path`, unless the snapshot next to it
+    // (see Snapshot) was taken from the same source text: then the globals
+    // the prelude left are restored from it instead, and nothing runs. A
+    // prelude that does run without errors is snapshotted for next time.
+    // The snapshot holds every global there is once the prelude is done,
+    // so start from a fresh context. Returns false if the prelude had an
+    // error.
+    public boolean runPrelude(Path path, boolean precompiled) throws IOException {
+        String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        // The snapshot and the .loxc are both keyed by this
+        byte[] hash = SourceHash.digest(source);
+        // Even a restored snapshot needs the prelude's function declarations
+        Script prelude = engine.compileFile(path, source, hash, precompiled);
+        Path snapshot = Snapshot.pathFor(path);
+        if (!prelude.hasErrors() && Files.isRegularFile(snapshot)
+                && Snapshot.read(snapshot, interpreter, prelude, natives(), hash)) {
+            return true;
+        }
+
+        execute(prelude);
+        if (hadError() || hadRuntimeError()) return false;
+        try {
+            Snapshot.write(snapshot, interpreter, prelude, natives(), hash);
+        } catch (IllegalArgumentException e) {
+            // The prelude will simply run again next time
+            err.println("Can't snapshot the prelude: " + e.getMessage());
+        } catch (IOException e) {
+            // Like the script cache, only an optimization
+        }
+        return true;
+    }
+
+    LoxTask spawn(Supplier<Object> call) {
+        LoxTask task = LoxTask.start(call);
+        tasks.add(task);
+        return task;
+    }
+
+    // A task hands back the fuel and heap it drew but didn't use
+    void taskFinished(long bytesAllocated, long fuel, long heap) {
+        taskBytes.addAndGet(bytesAllocated);
+        if (fuelBudget != 0 && outOfFuel == OutOfFuel.ABORT && fuel > 0) {
+            fuelLeft.addAndGet(fuel);
+        }
+        if (heapCap != 0 && heap > 0) heapLeft.addAndGet(heap);
+    }
+
+    // Waits for every task spawned so far, and those they spawn in turn.
+    // A task that failed with a runtime error nobody joined it to see is
+    // reported here, as the script's own would be.
+    void awaitTasks() {
+        LoxTask task;
+        while ((task = tasks.poll()) != null) {
+            boolean seen = task.joined();
+            try {
+                task.join();
+            } catch (RuntimeError error) {
+                if (!seen) runtimeError(error);
+            }
+        }
+    }
+
+    // Runs the script read from `input` while it is still being read and
+    // parsed: each top-level statement runs as soon as it's been parsed.
+    // Unlike execute(), the statements before a compile error have run
+    // by the time it's reported (see LoxPipeline).
+    public void runStreaming(Reader input) throws IOException {
+        new LoxPipeline(engine, this).run(input);
+    }
+
+    // Prints what compiling found, and keeps it
+    void compileDiagnostics(Diagnostics found) {
+        found.print(err);
+        diagnostics.addAll(found);
+    }
+
+    // Meters execution: every loop iteration, block and function call
+    // burns one unit of fuel. With ABORT, each execute() gets `budget`
+    // units, shared by the script and every task it spawns, and whoever
+    // finds the tank empty stops with a runtime error at the line it got
+    // to. Tasks draw their fuel in chunks, so one may run out while
+    // another still holds the last chunk. With YIELD, each interpreter
+    // calls Thread.yield() and refills every `budget` units of its own,
+    // so a runaway loop gives way to other work (on a virtual thread that
+    // hands the carrier to the next task instead of to the OS). A budget
+    // of zero turns metering off.
+    public void setFuel(long budget, OutOfFuel policy) {
+        if (budget < 0) throw new IllegalArgumentException("Negative fuel budget");
+        this.fuelBudget = budget;
+        this.outOfFuel = policy;
+        fuelLeft.set(budget);
+    }
+
+    // What an interpreter starts a run or a task with. Unmetered runs get
+    // a tank they can't empty, so they never leave the fast path.
+    long fuel() {
+        if (fuelBudget == 0) return Long.MAX_VALUE;
+        if (outOfFuel == OutOfFuel.YIELD) return fuelBudget;
+        return draw(fuelLeft, FUEL_CHUNK);
+    }
+
+    // Takes up to `chunk` from `left`, or whatever is left
+    private static long draw(AtomicLong left, long chunk) {
+        while (true) {
+            long available = left.get();
+            long taken = Math.min(available, chunk);
+            if (taken <= 0) return 0;
+            if (left.compareAndSet(available, available - taken)) return taken;
+        }
+    }
+
+    // Called by an interpreter whose fuel ran out at `token`; returns
+    // the fuel to carry on with
+    long refuel(Token token) {
+        if (outOfFuel == OutOfFuel.ABORT) {
+            long drawn = draw(fuelLeft, FUEL_CHUNK);
+            if (drawn == 0) throw new RuntimeError(token, "Out of fuel.");
+            // Less the unit whose burning ran the tank dry
+            return drawn - 1;
+        }
+        LoxEvents.Yield event = new LoxEvents.Yield();
+        event.begin();
+        Thread.yield();
+        event.end();
+        if (event.shouldCommit()) {
+            event.line = token.line;
+            event.budget = fuelBudget;
+            event.commit();
+        }
+        return fuelBudget;
+    }
+
+    // Caps the bytes the context may allocate (see LoxMemory for how
+    // they're counted) over all its runs, the script's and every task's
+    // together; whoever goes over stops with a runtime error. Zero means
+    // no cap. Interpreters reserve the heap in chunks as they allocate,
+    // so with tasks running the cap can bite up to a chunk per task
+    // early.
+    public void setHeapCap(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Negative heap cap");
+        this.heapCap = bytes;
+        heapLeft.set(Math.max(0, bytes - bytesAllocated()));
+        interpreter.resetHeap();
+    }
+
+    // The heap an interpreter may allocate before it has to reserve
+    // more: without a cap, more than it can ever use
+    long heap() {
+        return heapCap == 0 ? Long.MAX_VALUE : 0;
+    }
+
+    // Called by an interpreter at `token` that needs `shortfall` more
+    // bytes than it has reserved; returns how many it got, at least that
+    long reserveHeap(long shortfall, Token token) {
+        while (true) {
+            long available = heapLeft.get();
+            long taken = Math.min(available, Math.max(shortfall, HEAP_CHUNK));
+            if (taken < shortfall) {
+                throw new RuntimeError(token, "Heap cap of " + heapCap + " bytes exceeded.");
+            }
+            if (heapLeft.compareAndSet(available, available - taken)) return taken;
+        }
+    }
+
+    // Approximate bytes allocated by everything run in this context so
+    // far; each finished task adds what it allocated
+    public long bytesAllocated() {
+        return interpreter.bytesAllocated() + taskBytes.get();
+    }
+
+    // Statements executed in this context so far, nested ones included
+    long statementsExecuted() {
+        return interpreter.statementsExecuted();
+    }
+
+    public boolean hadError() {
+        return diagnostics.hasErrors();
+    }
+
+    public boolean hadRuntimeError() {
+        return diagnostics.count(Diagnostics.Kind.RUNTIME_ERROR) > 0;
+    }
+
+    // Compile and runtime errors (and warnings) reported so far, up to
+    // the engine's cap
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    // The REPL keeps going after a bad line, so it resets them itself
+    public void clearErrors() {
+        diagnostics.clear();
+    }
+
+    Natives natives() {
+        return engine.natives();
+    }
+
+    void setProfiler(SamplingProfiler profiler) {
+        interpreter.setProfiler(profiler);
+    }
+
+    // Runs from here on guess operand types from `previous` (null for no
+    // guesses) and record what they see into `recording` (null for not
+    // at all); see TypeFeedback. Both belong to a single script's source.
+    void setFeedback(TypeFeedback previous, TypeFeedback recording) {
+        interpreter.setFeedback(previous, recording);
+    }
+
+    void runtimeError(RuntimeError error) {
+        err.println(error.getMessage() +
+            "\n[line " + error.token.line + "]");
+        diagnostics.runtimeError(error);
+    }
+}
@@ -0,0 +1,203 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A long-lived jlox that runs scripts for LoxClient over a Unix-domain socket.
+//
+// Launching `jlox script.lox` pays for JVM startup and then runs the
+// interpreter cold (interpreted bytecode, nothing JIT-compiled yet). For
+// short scripts that is most of the time. The daemon pays it once: its
+// JIT stays warm and its engine keeps the compiled-script cache, so a
+// repeated script skips scanning and parsing as well.
+//
+// Every request runs in a fresh LoxContext, so requests share nothing but
+// the engine's immutable Scripts, and each one gets its own thread.
+//
+//   java com.craftinginterpreters.lox.LoxDaemon /tmp/jlox.sock
+//   java com.craftinginterpreters.lox.LoxClient /tmp/jlox.sock script.lox
+//
+// Protocol (all ints big-endian):
+//   request:  kind (REQUEST_PATH or REQUEST_SOURCE), int length, UTF-8 bytes
+//   response: any number of (STDOUT | STDERR, int length, bytes) frames,
+//             then EXIT and an int exit status
+// Exit statuses are those of `jlox script.lox`: 65 for a compile error,
+// 70 for a runtime error, and 66 when the script can't be read.
+public class LoxDaemon {
+
+    static final byte REQUEST_PATH = 'P';
+    static final byte REQUEST_SOURCE = 'S';
+    static final byte STDOUT = '1';
+    static final byte STDERR = '2';
+    static final byte EXIT = 'X';
+
+    // Output is sent in frames of at most this many bytes, and whatever
+    // is left when the script finishes
+    private static final int FRAME_SIZE = 8192;
+
+    private final LoxEngine engine;
+    private final Path socketPath;
+
+    public LoxDaemon(LoxEngine engine, Path socketPath) {
+        this.engine = engine;
+        this.socketPath = socketPath;
+    }
+
+    // Accepts clients until the process is killed
+    public void serve() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        bind(server);
+        System.err.println("Listening on " + socketPath);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                // Nothing sensible to do on the way out
+            }
+        }));
+
+        // A request can run for as long as its script likes, so don't let
+        // a small pool of platform threads queue the others behind it
+        ExecutorService executor = LoxHost.hasVirtualThreads()
+            ? LoxHost.newTaskExecutor()
+            : Executors.newCachedThreadPool();
+        for (;;) {
+            SocketChannel client = server.accept();
+            executor.execute(() -> handle(client));
+        }
+    }
+
+    private void bind(ServerSocketChannel server) throws IOException {
+        // A socket file left behind by a daemon that was killed hard
+        // would make bind fail, but don't steal one that's still live
+        if (Files.exists(socketPath)) {
+            boolean live;
+            try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                live = probe.connect(UnixDomainSocketAddress.of(socketPath));
+            } catch (IOException e) {
+                live = false;
+            }
+            if (live) {
+                throw new IOException("A daemon is already listening on " + socketPath);
+            }
+            Files.delete(socketPath);
+        }
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+    }
+
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            byte kind = in.readByte();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            String text = new String(payload, StandardCharsets.UTF_8);
+
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(
+                new FrameStream(out, STDOUT), FRAME_SIZE), false, StandardCharsets.UTF_8);
+            PrintStream stderr = new PrintStream(new BufferedOutputStream(
+                new FrameStream(out, STDERR), FRAME_SIZE), false, StandardCharsets.UTF_8);
+            int status = run(kind, text, stdout, stderr);
+            stdout.flush();
+            stderr.flush();
+
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; its script has nowhere to report to
+        }
+    }
+
+    private int run(byte kind, String text, PrintStream out, PrintStream err) {
+        LoxContext context = engine.newContext(out, err);
+        try {
+            Script script;
+            if (kind == REQUEST_PATH) {
+                // The .loxc files are for cold starts; the daemon's own
+                // cache already keeps every script it has compiled
+                script = engine.compileFile(Paths.get(text), false);
+            } else if (kind == REQUEST_SOURCE) {
+                script = engine.compile(text);
+            } else {
+                err.println("Unknown request kind " + kind + ".");
+                return 64;
+            }
+            context.execute(script);
+        } catch (IOException e) {
+            err.println("Could not read " + text + ".");
+            return 66;
+        }
+        if (context.hadError()) return 65;
+        if (context.hadRuntimeError()) return 70;
+        return 0;
+    }
+
+    // Sends every write as one frame of the given stream. Both of a
+    // request's streams share the connection, hence the lock on it.
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte stream;
+
+        FrameStream(DataOutputStream out, byte stream) {
+            this.out = out;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            synchronized (out) {
+                out.writeByte(stream);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: LoxDaemon <socket>");
+            System.exit(64);
+        }
+        LoxDaemon daemon = new LoxDaemon(new LoxEngine(), Paths.get(args[0]));
+        try {
+            daemon.serve();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(74);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// Entry point for embedding Lox.
+//
+// An engine compiles source into Scripts and hands out LoxContexts to run
+// them in. The engine itself holds no per-script state, so one instance can
+// be shared by every thread in the process:
+//
+//   LoxEngine engine = new LoxEngine();
+//   Script script = engine.compile(source);
+//   LoxContext context = engine.newContext(out, err);
+//   context.execute(script);
+//
+// Compiled scripts are cached by source hash, so compiling (or running) the
+// same source again costs a hash of the text instead of a scan and parse.
+//
+// Unless it's turned off, every compiled script goes through the Optimizer.
+public class LoxEngine {
+
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final ScriptCache cache;
+    private final Natives natives = Natives.standard();
+    private final boolean optimize;
+    private int maxDiagnostics = Diagnostics.UNLIMITED;
+
+    public LoxEngine() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public LoxEngine(int cacheSize) {
+        this(cacheSize, true);
+    }
+
+    public LoxEngine(int cacheSize, boolean optimize) {
+        this.cache = new ScriptCache(cacheSize);
+        this.optimize = optimize;
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return new LoxContext(this, out, err);
+    }
+
+    public ScriptCache cache() {
+        return cache;
+    }
+
+    // Register natives here before creating the contexts that use them
+    public Natives natives() {
+        return natives;
+    }
+
+    // Caps the diagnostics each script and context keeps (see
+    // Diagnostics); set it before compiling anything or creating
+    // contexts. Scripts compiled (and cached) before keep what they had.
+    public void setMaxDiagnostics(int cap) {
+        if (cap < 0) throw new IllegalArgumentException("Negative diagnostics cap");
+        this.maxDiagnostics = cap;
+    }
+
+    Diagnostics newDiagnostics() {
+        return new Diagnostics(maxDiagnostics);
+    }
+
+    public Script compile(String source) {
+        return cache.get(source, this::compileUncached);
+    }
+
+    private Script compile(String source, byte[] hash) {
+        return cache.get(SourceHash.hex(hash), source, this::compileUncached);
+    }
+
+    // Compiles a script file. With `precompiled` set we first try the
+    // ".loxc" next to it, and (re)write that file whenever it is missing
+    // or was built from different source text.
+    public Script compileFile(Path path, boolean precompiled) throws IOException {
+        String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        return compileFile(path, source, SourceHash.digest(source), precompiled);
+    }
+
+    // The same, for a caller that has already read the file and hashed
+    // it (SourceHash.digest) for its own use, so neither happens twice
+    Script compileFile(Path path, String source, byte[] hash, boolean precompiled)
+            throws IOException {
+        if (!precompiled) return compile(source, hash);
+
+        Path cachePath = ScriptFile.cachePathFor(path);
+        if (Files.isRegularFile(cachePath)) {
+            Script script = ScriptFile.read(cachePath, hash);
+            if (script != null) return optimized(script);
+        }
+
+        Script script = compile(source, hash);
+        if (!script.hasErrors()) {
+            try {
+                ScriptFile.write(cachePath, script, hash);
+            } catch (IOException e) {
+                // The cache is only an optimization, e.g. the directory
+                // may be read-only. We'll parse from source next time too.
+            }
+        }
+        return script;
+    }
+
+    Script compileUncached(String source) {
+        Diagnostics diagnostics = newDiagnostics();
+
+        LoxEvents.Scan scan = new LoxEvents.Scan();
+        scan.begin();
+        Scanner scanner = new Scanner(source, diagnostics);
+        List<Token> tokens = scanner.scanTokens();
+        scan.end();
+        if (scan.shouldCommit()) {
+            scan.tokens = tokens.size();
+            scan.bytes = source.getBytes(StandardCharsets.UTF_8).length;
+            scan.commit();
+        }
+
+        LoxEvents.Parse parse = new LoxEvents.Parse();
+        parse.begin();
+        Parser parser = new Parser(tokens, diagnostics);
+        List<Stmt> statements = parser.parse();
+        parse.end();
+        if (parse.shouldCommit()) {
+            parse.statements = statements.size();
+            parse.errors = diagnostics.count(Diagnostics.Kind.ERROR);
+            parse.commit();
+        }
+
+        return resolved(statements, diagnostics, tokens.size());
+    }
+
+    // The rest of compiling, once statements have been parsed with
+    // `diagnostics` so far. LoxPipeline comes in here one statement at a time.
+    Script resolved(List<Stmt> statements, Diagnostics diagnostics, int tokenCount) {
+        // Resolving a tree with syntax errors in it would only pile
+        // more errors on top of the real ones
+        int frameSize = 0;
+        if (!diagnostics.hasErrors()) {
+            frameSize = new Resolver(diagnostics).resolve(statements);
+        }
+
+        Script script = new Script(statements, diagnostics, tokenCount, frameSize);
+        return script.hasErrors() ? script : optimized(script);
+    }
+
+    private Script optimized(Script script) {
+        return optimize ? Optimizer.optimize(script) : script;
+    }
+}
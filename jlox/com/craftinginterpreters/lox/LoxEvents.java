@@ -0,0 +1,134 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Java Flight Recorder events for each phase of running a script.
+// They show up under "Lox" in JMC next to the GC and JIT events, e.g.
+//   java -XX:StartFlightRecording:filename=lox.jfr ... Lox script.lox
+//   jfr print --events 'lox.*' lox.jfr
+//
+// A disabled event costs next to nothing (the JIT removes the allocation),
+// so the phases are always instrumented.
+// lox.Loop fires once per while loop execution, so it is off by default;
+// turn it on with a custom .jfc or with
+//   -XX:StartFlightRecording:+lox.Loop#enabled=true,...
+final class LoxEvents {
+
+    private LoxEvents() {}
+
+    @Name("lox.Scan")
+    @Label("Scan")
+    @Category("Lox")
+    @Description("Turning the source text into tokens")
+    @StackTrace(false)
+    static class Scan extends Event {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Source Bytes")
+        long bytes;
+    }
+
+    @Name("lox.Parse")
+    @Label("Parse")
+    @Category("Lox")
+    @Description("Turning tokens into statements")
+    @StackTrace(false)
+    static class Parse extends Event {
+        @Label("Statements")
+        int statements;
+
+        @Label("Errors")
+        int errors;
+    }
+
+    // Emitted by optimization passes over the parsed program, one per pass
+    @Name("lox.Optimize")
+    @Label("Optimize")
+    @Category("Lox")
+    @Description("A rewriting pass over the parsed statements")
+    @StackTrace(false)
+    static class Optimize extends Event {
+        @Label("Pass")
+        String pass;
+
+        @Label("Rewrites")
+        int rewrites;
+    }
+
+    @Name("lox.Execute")
+    @Label("Execute")
+    @Category("Lox")
+    @Description("Interpreting a list of top-level statements")
+    @StackTrace(false)
+    static class Execute extends Event {
+        @Label("Statements Executed")
+        long statements;
+
+        @Label("Bytes Allocated")
+        @DataAmount
+        long bytesAllocated;
+
+        @Label("Runtime Error")
+        String runtimeError;
+
+        @Label("Runtime Error Line")
+        int runtimeErrorLine;
+    }
+
+    @Name("lox.Loop")
+    @Label("Long Running Loop")
+    @Category("Lox")
+    @Description("A while (or desugared for) loop that ran past the threshold")
+    @StackTrace(false)
+    @Enabled(false)
+    @Threshold("10 ms")
+    static class Loop extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Iterations")
+        long iterations;
+    }
+
+    // Emitted each time a context metered with OutOfFuel.YIELD runs dry;
+    // the duration is how long the thread waited to be scheduled again
+    @Name("lox.Yield")
+    @Label("Yield")
+    @Category("Lox")
+    @Description("A metered context giving up its thread after using its fuel")
+    @StackTrace(false)
+    static class Yield extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Fuel Budget")
+        long budget;
+    }
+
+    // An instant event: a guess from TypeFeedback turned out wrong, and
+    // the operator went back to the general path
+    @Name("lox.Deoptimize")
+    @Label("Deoptimize")
+    @Category("Lox")
+    @Description("An operator's operands stopped matching the types its feedback guessed")
+    @StackTrace(false)
+    static class Deoptimize extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Operator")
+        String operator;
+
+        @Label("Guess")
+        String guess;
+    }
+}
@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+// A function value: its declaration plus the Cells it captured when the
+// declaration was executed. Closures belong to the LoxContext that created
+// them, since they run against its globals. Every task spawned in that
+// context shares those, so a function can be handed from task to task.
+final class LoxFunction implements LoxCallable {
+
+    final Stmt.Function declaration;
+    final Cell[] closure;
+    private final Interpreter interpreter;
+
+    LoxFunction(Stmt.Function declaration, Cell[] closure, Interpreter interpreter) {
+        this.declaration = declaration;
+        this.closure = closure;
+        this.interpreter = interpreter;
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        Object[] frame = new Object[declaration.frameSize];
+        System.arraycopy(arguments, 0, frame, 0, arguments.length);
+        return interpreter.invoke(this, frame);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,161 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs many independent executions of one Script side by side.
+//
+// The Script is compiled once and shared; every execution gets a fresh
+// LoxContext (globals, output, error flags), so executions only share
+// the immutable AST. Each execution runs on its own virtual thread when
+// the JVM has them (21+); on older JVMs we fall back to a pool of
+// platform threads, one per core.
+//
+// With a fuel slice set, every context yields its thread each time it
+// has used up the slice (see LoxContext.setFuel), so a tenant stuck in a
+// long loop can't keep the others from running.
+//
+// As a command it measures throughput while the number of live contexts grows:
+//   java com.craftinginterpreters.lox.LoxHost [--fuel <slice>] script.lox [executions] [contexts...]
+public class LoxHost {
+
+    private final LoxEngine engine;
+    private long fuelSlice = 0;
+
+    public LoxHost(LoxEngine engine) {
+        this.engine = engine;
+    }
+
+    // Zero (the default) runs contexts unmetered
+    public void setFuelSlice(long slice) {
+        this.fuelSlice = slice;
+    }
+
+    public static class Result {
+        public final int executions;
+        public final int concurrency;
+        public final long failures;
+        public final long elapsedNanos;
+
+        Result(int executions, int concurrency, long failures, long elapsedNanos) {
+            this.executions = executions;
+            this.concurrency = concurrency;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double executionsPerSecond() {
+            return executions / (elapsedNanos / 1e9);
+        }
+    }
+
+    // Runs `executions` fresh contexts over `script`, with at most
+    // `concurrency` of them alive at the same time.
+    public Result runAll(Script script, int executions, int concurrency)
+            throws InterruptedException {
+        Semaphore live = new Semaphore(concurrency);
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+
+        ExecutorService executor = newTaskExecutor();
+        try {
+            for (int i = 0; i < executions; i++) {
+                live.acquire();
+                executor.execute(() -> {
+                    try {
+                        if (!runOne(script)) failures.incrementAndGet();
+                    } finally {
+                        live.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        return new Result(executions, concurrency, failures.get(),
+            System.nanoTime() - start);
+    }
+
+    private boolean runOne(Script script) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(output);
+        LoxContext context = engine.newContext(stream, stream);
+        context.setFuel(fuelSlice, LoxContext.OutOfFuel.YIELD);
+        context.execute(script);
+        return !context.hadError() && !context.hadRuntimeError();
+    }
+
+    // One virtual thread per task when available, otherwise a fixed pool
+    static ExecutorService newTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long fuelSlice = 0;
+        if (args.length > 1 && args[0].equals("--fuel")) {
+            fuelSlice = Long.parseLong(args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 1 || fuelSlice < 0) {
+            System.err.println("Usage: LoxHost [--fuel <slice>] <script> [executions] [contexts...]");
+            System.exit(64);
+        }
+        byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+        int executions = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        List<Integer> levels = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            levels.add(Integer.parseInt(args[i]));
+        }
+        if (levels.isEmpty()) levels = List.of(1, 10, 100, 1000, 10000);
+
+        LoxEngine engine = new LoxEngine();
+        Script script = engine.compile(new String(bytes, Charset.defaultCharset()));
+        if (script.hasErrors()) {
+            script.diagnostics().print(System.err);
+            System.exit(65);
+        }
+
+        LoxHost host = new LoxHost(engine);
+        host.setFuelSlice(fuelSlice);
+        System.out.printf("threads: %s, cores: %d%n",
+            hasVirtualThreads() ? "virtual" : "platform pool",
+            Runtime.getRuntime().availableProcessors());
+        System.out.printf("%10s %12s %14s %10s%n",
+            "contexts", "executions", "executions/s", "failures");
+        for (int concurrency : levels) {
+            Result result = host.runAll(script, executions, concurrency);
+            System.out.printf("%10d %12d %14.1f %10d%n", concurrency,
+                result.executions, result.executionsPerSecond(), result.failures);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+// Rough sizes of what the interpreter allocates on a script's behalf, for
+// per-context allocation accounting (see LoxContext.setHeapCap).
+//
+// The numbers assume a 64-bit JVM with compressed references (12 byte
+// object headers, 4 byte references, 8 byte alignment) and compact
+// strings. They don't need to be exact: the point is to tell a script that
+// allocates a few kilobytes from one that allocates gigabytes.
+//
+// What gets counted is every allocation, not what is still live: the
+// interpreter can't see the collector free anything. That's also what
+// matters for GC pressure, since a tenant that churns through garbage
+// costs the collector as much as one that holds on to it.
+final class LoxMemory {
+
+    private LoxMemory() {}
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+
+    // A boxed Long or Double
+    static final long NUMBER = align(HEADER + 8);
+    // A Cell holding one captured variable
+    static final long CELL = align(HEADER + REFERENCE);
+    // A global: its HashMap node (the table growing is ignored)
+    static final long GLOBAL = align(HEADER + 4 + 3 * REFERENCE);
+
+    static long array(int length) {
+        return align(HEADER + 4 + (long)length * REFERENCE);
+    }
+
+    // A LoxArray and its double[]
+    static long numbers(int length) {
+        return align(HEADER + REFERENCE) + align(HEADER + 4 + 8L * length);
+    }
+
+    // A String and its backing byte[]
+    static long string(String value) {
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        long bytes = latin1 ? value.length() : 2L * value.length();
+        return align(HEADER + 8 + REFERENCE) + align(HEADER + 4 + bytes);
+    }
+
+    // A closure: the LoxFunction and its array of captured Cells
+    static long function(int captures) {
+        long closure = captures == 0 ? 0 : array(captures);
+        return align(HEADER + 3 * REFERENCE) + closure;
+    }
+
+    // What producing `value` allocated. Booleans, nil and the small Longs
+    // that Long.valueOf caches are shared, so they cost nothing.
+    static long sizeOf(Object value) {
+        if (value instanceof Double) return NUMBER;
+        if (value instanceof Long) {
+            long number = (long)value;
+            return number >= -128 && number <= 127 ? 0 : NUMBER;
+        }
+        if (value instanceof String) return string((String)value);
+        if (value instanceof LoxArray) return numbers(((LoxArray)value).values.length);
+        return 0;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,181 @@
+package com.craftinginterpreters.lox;
+
+// Arithmetic on Lox numbers.
+//
+// A Lox number is a double, but most numbers in real scripts (loop
+// counters, indexes, sizes) are small integers. Those are carried as Longs
+// instead, and the operations below stay in long arithmetic for as long as
+// the result is exactly what the double operation would have produced.
+// Anything else (a fraction, -0.0, NaN, infinities, a result too big to
+// be exact) widens to a Double, and a Double never narrows back.
+//
+// Longs are kept within +/-2^53, where every integer is also an exact
+// double, so a Long always means the same number as (double) of it and
+// nothing a script can observe changes: arithmetic, comparisons,
+// equality (Double.equals semantics, so 0 == -0 stays false) and the
+// printed form all match the all-double interpreter.
+final class LoxNumbers {
+
+    // Largest magnitude a Long may hold (2^53)
+    static final long MAX_EXACT = 1L << 53;
+
+    private LoxNumbers() {}
+
+    static boolean isNumber(Object value) {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    static double toDouble(Object number) {
+        if (number instanceof Long) return (long)number;
+        return (double)number;
+    }
+
+    // Number literals (and natives' results) come in as doubles
+    static Object of(double value) {
+        long integral = (long)value;
+        if (integral == value && Math.abs(integral) <= MAX_EXACT
+                && (integral != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            return integral;
+        }
+        return value;
+    }
+
+    private static boolean exact(long value) {
+        return value >= -MAX_EXACT && value <= MAX_EXACT;
+    }
+
+    static Object add(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (long)left;
+            long b = (long)right;
+            // Both are within 2^53, so this can't overflow a long
+            long sum = a + b;
+            if (exact(sum)) return sum;
+            return (double)a + (double)b;
+        }
+        return toDouble(left) + toDouble(right);
+    }
+
+    static Object subtract(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (long)left;
+            long b = (long)right;
+            long difference = a - b;
+            if (exact(difference)) return difference;
+            return (double)a - (double)b;
+        }
+        return toDouble(left) - toDouble(right);
+    }
+
+    static Object multiply(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (long)left;
+            long b = (long)right;
+            long product = a * b;
+            long high = Math.multiplyHigh(a, b);
+            boolean fits = (high == 0 && product >= 0) || (high == -1 && product < 0);
+            if (fits && exact(product)) {
+                // 0 * -3 is -0.0 in double arithmetic
+                if (product == 0 && (a < 0 || b < 0)) return -0.0;
+                return product;
+            }
+            return (double)a * (double)b;
+        }
+        return toDouble(left) * toDouble(right);
+    }
+
+    static Object divide(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            long a = (long)left;
+            long b = (long)right;
+            // Division by zero gives an infinity or NaN, as before
+            if (b != 0 && a % b == 0) {
+                if (a == 0 && b < 0) return -0.0;
+                return a / b;
+            }
+            return (double)a / (double)b;
+        }
+        return toDouble(left) / toDouble(right);
+    }
+
+    static Object negate(Object operand) {
+        if (operand instanceof Long) {
+            long a = (long)operand;
+            // -0 is a double
+            if (a == 0) return -0.0;
+            return -a;
+        }
+        return -(double)operand;
+    }
+
+    // Comparisons are false whenever either side is NaN, as with doubles
+    static boolean greater(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return (long)left > (long)right;
+        }
+        return toDouble(left) > toDouble(right);
+    }
+
+    static boolean greaterEqual(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return (long)left >= (long)right;
+        }
+        return toDouble(left) >= toDouble(right);
+    }
+
+    static boolean less(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return (long)left < (long)right;
+        }
+        return toDouble(left) < toDouble(right);
+    }
+
+    static boolean lessEqual(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return (long)left <= (long)right;
+        }
+        return toDouble(left) <= toDouble(right);
+    }
+
+    // Double.equals semantics for any mix of Long and Double
+    static boolean equal(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return (long)left == (long)right;
+        }
+        return Double.doubleToLongBits(toDouble(left))
+            == Double.doubleToLongBits(toDouble(right));
+    }
+
+    // Counted loops (see Optimizer) step an exact integer counter i and
+    // test it against a number `limit` with <, <=, > or >=. This turns
+    // that test into `i < bound` for < and <=, and `i > bound` for > and
+    // >=, with a long bound that gives the same answer for every counter
+    // value a Long can hold. NaN makes every comparison false.
+    static long bound(TokenType operator, Object limit) {
+        boolean up = operator == TokenType.LESS || operator == TokenType.LESS_EQUAL;
+        double value = toDouble(limit);
+        if (Double.isNaN(value)) return up ? Long.MIN_VALUE : Long.MAX_VALUE;
+
+        // Far enough past +/-2^53 to act as infinity, with room for +1/-1
+        double clamped = Math.max(-4.0 * MAX_EXACT, Math.min(4.0 * MAX_EXACT, value));
+        switch (operator) {
+            case LESS: return (long)Math.ceil(clamped);
+            case LESS_EQUAL: return (long)Math.floor(clamped) + 1;
+            case GREATER: return (long)Math.floor(clamped);
+            default: return (long)Math.ceil(clamped) - 1;
+        }
+    }
+
+    static String stringify(Object number) {
+        // Double.toString switches to exponent notation from 10^7 up, so
+        // big Longs have to go through it too to print the same
+        if (number instanceof Long && Math.abs((long)number) < 10_000_000) {
+            return Long.toString((long)number);
+        }
+        String text = Double.toString(toDouble(number));
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Runs a script while it is still being read (see LoxContext.runStreaming).
+//
+// Scanning, parsing and executing are three stages on three threads,
+// connected by bounded queues:
+//
+//   input --> Scanner --tokens--> Parser --statements--> Interpreter
+//
+// so a top-level statement runs as soon as it has been parsed, and how
+// much of the script is held in memory at once is bounded by the queues
+// rather than by the size of the script. Each statement is resolved and
+// optimized on its own, the way REPL lines are; top-level declarations
+// are globals, so nothing a statement needs is in the ones after it.
+//
+// Streaming gives up the staged rule that nothing runs when the script has
+// a compile error anywhere: the statements before the first error have
+// already run by the time it is found. Nothing from that point on runs,
+// but scanning and parsing carry on to the end so every error is still
+// reported (after the output, scan errors first, as in a staged run).
+// Which statements run doesn't depend on timing: a statement runs only if
+// no error was reported before the parser took its last token.
+//
+// A runtime error stops the script, as it always does, and so does an
+// error from resolving a statement; the scan and parse stages are then
+// abandoned.
+final class LoxPipeline {
+
+    private static final int TOKEN_QUEUE = 4096;
+    private static final int STATEMENT_QUEUE = 256;
+
+    // Marks the end of the statement queue
+    private static final Stmt END = new Stmt.Expression(null);
+
+    // A token with the number of scan errors reported before it
+    private static final class Scanned {
+        final Token token;
+        final int scanErrors;
+
+        Scanned(Token token, int scanErrors) {
+            this.token = token;
+            this.scanErrors = scanErrors;
+        }
+    }
+
+    // Thrown inside a stage whose queue wait was interrupted
+    private static final class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final LoxEngine engine;
+    private final LoxContext context;
+
+    private final BlockingQueue<Scanned> tokens = new ArrayBlockingQueue<>(TOKEN_QUEUE);
+    private final BlockingQueue<Stmt> statements = new ArrayBlockingQueue<>(STATEMENT_QUEUE);
+
+    // Each is only touched by its own stage's thread, until the
+    // executing thread has joined it
+    private final Diagnostics scanErrors;
+    private final Diagnostics parseErrors;
+
+    // Set by a stage that died with an exception
+    private volatile Throwable failure = null;
+
+    LoxPipeline(LoxEngine engine, LoxContext context) {
+        this.engine = engine;
+        this.context = context;
+        this.scanErrors = engine.newDiagnostics();
+        this.parseErrors = engine.newDiagnostics();
+    }
+
+    void run(Reader input) throws IOException {
+        Thread scanner = stage("lox-scan", () -> {
+            new Scanner(input, scanErrors, token -> put(tokens, new Scanned(token,
+                scanErrors.count(Diagnostics.Kind.ERROR)))).scan();
+        });
+        Thread parser = stage("lox-parse", () -> {
+            parse();
+            put(statements, END);
+        });
+        scanner.start();
+        parser.start();
+
+        try {
+            execute();
+            context.awaitTasks();
+        } finally {
+            scanner.interrupt();
+            parser.interrupt();
+        }
+        if (context.hadRuntimeError() || context.hadError()) return;
+
+        join(scanner);
+        join(parser);
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException)failure).getCause();
+        }
+        if (failure != null) throw new IllegalStateException("Stage failed", failure);
+
+        Diagnostics errors = engine.newDiagnostics();
+        errors.addAll(scanErrors);
+        errors.addAll(parseErrors);
+        if (!errors.isEmpty()) context.compileDiagnostics(errors);
+    }
+
+    private void parse() {
+        // The scan errors reported before the last token the parser took
+        int[] scanErrorsSeen = {0};
+        Iterator<Token> source = new Iterator<Token>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Token next() {
+                Scanned scanned = take(tokens);
+                scanErrorsSeen[0] = scanned.scanErrors;
+                return scanned.token;
+            }
+        };
+
+        new Parser(source, parseErrors).parse(stmt -> {
+            // Once there's an error nothing else runs, but we keep parsing
+            // to report the rest
+            if (scanErrorsSeen[0] == 0 && !parseErrors.hasErrors()) put(statements, stmt);
+        });
+    }
+
+    private void execute() {
+        for (;;) {
+            Stmt stmt = take(statements);
+            if (stmt == END) return;
+            // A fresh list: the engine's scripts are never modified
+            List<Stmt> single = new ArrayList<>(1);
+            single.add(stmt);
+            // Tasks a statement spawns may still be talking to the ones
+            // after it, so they're only waited for at the end
+            context.execute(engine.resolved(single, engine.newDiagnostics(), 0), false);
+            if (context.hadRuntimeError() || context.hadError()) return;
+        }
+    }
+
+    private Thread stage(String name, Runnable body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Cancelled e) {
+                // The script stopped; nobody is waiting for the rest
+            } catch (Throwable e) {
+                // Stops the executing thread, which would otherwise wait
+                // for statements that will never come
+                failure = e;
+                statements.clear();
+                statements.offer(END);
+            }
+        }, name);
+        // A stage blocked reading stdin mustn't keep the JVM alive
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            throw new Cancelled();
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// What `spawn f(x)` evaluates to: the call, running on a thread of its own.
+//
+// Tasks run on virtual threads when the JVM has them (21+), so a script
+// can spawn one per item of work and block freely in channels. Older JVMs
+// get a cached pool of daemon platform threads instead; it has to grow
+// without bound, since a fixed pool deadlocks as soon as more tasks are
+// blocked on channels than it has threads.
+//
+// Each task runs in an interpreter of its own that shares the context's
+// globals (see Environment). Starting a task happens-before anything it
+// does, and everything it does happens-before join() returns it; the
+// same goes for a channel's send and the receive that gets the value.
+// Those are also the only points where one task is guaranteed to see
+// another's writes to captured locals.
+final class LoxTask {
+
+    private static final ExecutorService THREADS = threads();
+
+    private final CompletableFuture<Object> result;
+    // Whether anyone has seen how it ended (see LoxContext.awaitTasks)
+    private volatile boolean joined = false;
+
+    private LoxTask(CompletableFuture<Object> result) {
+        this.result = result;
+    }
+
+    static LoxTask start(Supplier<Object> call) {
+        return new LoxTask(CompletableFuture.supplyAsync(call, THREADS));
+    }
+
+    // Waits for the call to return and gives back its value. A runtime
+    // error in the task is rethrown here, as though the call was made
+    // here, so it reports the line it happened on.
+    Object join() {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw e;
+        } finally {
+            joined = true;
+        }
+    }
+
+    boolean joined() {
+        return joined;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+
+    private static ExecutorService threads() {
+        if (LoxHost.hasVirtualThreads()) return LoxHost.newTaskExecutor();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "lox-task");
+            // Like virtual threads, these don't keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package com.craftinginterpreters.lox;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+// A function implemented in Java (see Natives for how they're registered).
+//
+// Natives with a primitive signature get their own subclass, so a call
+// site that sees one can skip the generic path: instead of filling an
+// Object[] and unpacking Doubles from it, Interpreter.visitCallExpr checks
+// the argument types and calls the DoubleUnaryOperator (and friends)
+// directly. call(Object[]) still works for every kind, for callers that
+// don't know what they're holding.
+abstract class NativeFunction implements LoxCallable {
+
+    final String name;
+
+    NativeFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    Natives.NativeError notANumber() {
+        return new Natives.NativeError("Argument to '" + name + "' must be a number.");
+    }
+
+    double number(Object argument) {
+        if (LoxNumbers.isNumber(argument)) return LoxNumbers.toDouble(argument);
+        throw notANumber();
+    }
+
+    // () -> double
+    static final class Nullary extends NativeFunction {
+        final DoubleSupplier function;
+
+        Nullary(String name, DoubleSupplier function) {
+            super(name);
+            this.function = function;
+        }
+
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return LoxNumbers.of(function.getAsDouble());
+        }
+    }
+
+    // double -> double
+    static final class Unary extends NativeFunction {
+        final DoubleUnaryOperator function;
+
+        Unary(String name, DoubleUnaryOperator function) {
+            super(name);
+            this.function = function;
+        }
+
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return LoxNumbers.of(function.applyAsDouble(number(arguments[0])));
+        }
+    }
+
+    // (double, double) -> double
+    static final class Binary extends NativeFunction {
+        final DoubleBinaryOperator function;
+
+        Binary(String name, DoubleBinaryOperator function) {
+            super(name);
+            this.function = function;
+        }
+
+        @Override
+        public int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return LoxNumbers.of(
+                function.applyAsDouble(number(arguments[0]), number(arguments[1])));
+        }
+    }
+
+    // Any arity, any Lox values in and out
+    static final class Generic extends NativeFunction {
+        final int arity;
+        final Natives.Generic function;
+
+        Generic(String name, int arity, Natives.Generic function) {
+            super(name);
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return function.call(arguments);
+        }
+    }
+
+    // Like Generic, but reserving what it allocates first (see
+    // Natives.Allocating). Interpreter passes it the script's heap; a
+    // caller without one, through call(), reserves nothing.
+    static final class Allocating extends NativeFunction {
+        final int arity;
+        final Natives.Allocating function;
+
+        Allocating(String name, int arity, Natives.Allocating function) {
+            super(name);
+            this.arity = arity;
+            this.function = function;
+        }
+
+        @Override
+        public int arity() {
+            return arity;
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            return function.call(arguments, bytes -> {});
+        }
+    }
+}
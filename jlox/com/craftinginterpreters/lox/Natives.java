@@ -0,0 +1,203 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+// The native functions an engine's scripts can call, by global name.
+//
+// Every LoxContext copies the registry into its globals when it's created,
+// so register natives before creating the contexts that should see them:
+//
+//   engine.natives().define("hypot", Math::hypot);
+//   engine.natives().define("env", 1, args -> System.getenv((String)args[0]));
+//
+// Prefer the primitive overloads (DoubleSupplier, DoubleUnaryOperator,
+// DoubleBinaryOperator) whenever the native only deals in numbers: the
+// interpreters call those without building an argument array or
+// unboxing through one (see NativeFunction). A script can still shadow
+// any native with a global of its own.
+public class Natives {
+
+    // The shape of a native taking and returning arbitrary Lox values:
+    // nil is null, numbers are Longs (integral ones) or Doubles (see
+    // LoxNumbers), then Strings and Booleans.
+    // `arguments` always has exactly the declared arity.
+    public interface Generic {
+        Object call(Object[] arguments);
+    }
+
+    // A Generic native that allocates something as big as its arguments
+    // say, like array(length). It reserves the bytes from the calling
+    // script's heap cap (see LoxContext.setHeapCap) before allocating
+    // them, so one huge allocation fails as a runtime error at the call
+    // instead of taking the JVM down; the result isn't counted again.
+    public interface Allocating {
+        Object call(Object[] arguments, Heap heap);
+    }
+
+    public interface Heap {
+        // Throws, without reserving anything, if the cap has no room
+        void reserve(long bytes);
+    }
+
+    // Throw this from a native to report a Lox runtime error at the call
+    public static class NativeError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public NativeError(String message) {
+            // Turned into a RuntimeError right away, so skip the stack trace
+            super(message, null, false, false);
+        }
+    }
+
+    private final Map<String, NativeFunction> functions = new LinkedHashMap<>();
+
+    // The natives every engine starts with
+    static Natives standard() {
+        Natives natives = new Natives();
+        natives.define("clock", () -> System.currentTimeMillis() / 1000.0);
+
+        natives.define("abs", Math::abs);
+        natives.define("floor", Math::floor);
+        natives.define("ceil", Math::ceil);
+        natives.define("sqrt", Math::sqrt);
+        natives.define("exp", Math::exp);
+        natives.define("log", Math::log);
+        natives.define("sin", Math::sin);
+        natives.define("cos", Math::cos);
+        natives.define("pow", Math::pow);
+        natives.define("min", Math::min);
+        natives.define("max", Math::max);
+
+        natives.define("str", 1, arguments -> Interpreter.stringify(arguments[0]));
+
+        // Talking to spawned tasks (see LoxTask and LoxChannel)
+        natives.define("channel", 1, arguments -> {
+            Object capacity = arguments[0];
+            if (!(capacity instanceof Long) || (long)capacity < 0 || (long)capacity > 1 << 20) {
+                throw new NativeError("Channel capacity must be an integer from 0 to 1048576.");
+            }
+            return new LoxChannel((int)(long)capacity);
+        });
+        natives.define("send", 2, arguments -> {
+            try {
+                channel("send", arguments[0]).send(arguments[1]);
+            } catch (InterruptedException e) {
+                throw interrupted();
+            }
+            return null;
+        });
+        natives.define("receive", 1, arguments -> {
+            try {
+                return channel("receive", arguments[0]).receive();
+            } catch (InterruptedException e) {
+                throw interrupted();
+            }
+        });
+        natives.define("join", 1, arguments -> {
+            if (!(arguments[0] instanceof LoxTask)) {
+                throw new NativeError("Argument to 'join' must be a task.");
+            }
+            return ((LoxTask)arguments[0]).join();
+        });
+
+        // Numeric arrays (see LoxArray). The bulk operations are plain
+        // loops over the double[]; map takes a native of one number, like
+        // sqrt, and gives a new array.
+        natives.define("array", 1, (arguments, heap) -> {
+            Object length = arguments[0];
+            if (!(length instanceof Long) || (long)length < 0
+                    || (long)length > LoxArray.MAX_LENGTH) {
+                throw new NativeError("Array length must be an integer from 0 to " +
+                    LoxArray.MAX_LENGTH + ".");
+            }
+            heap.reserve(LoxMemory.numbers((int)(long)length));
+            return new LoxArray((int)(long)length);
+        });
+        natives.define("fill", 2, arguments -> {
+            LoxArray array = array("fill", arguments[0]);
+            if (!LoxNumbers.isNumber(arguments[1])) {
+                throw new NativeError("Second argument to 'fill' must be a number.");
+            }
+            Arrays.fill(array.values, LoxNumbers.toDouble(arguments[1]));
+            return null;
+        });
+        natives.define("sum", 1, arguments -> {
+            double sum = 0;
+            for (double value : array("sum", arguments[0]).values) {
+                sum += value;
+            }
+            return LoxNumbers.of(sum);
+        });
+        natives.define("map", 2, (arguments, heap) -> {
+            LoxArray array = array("map", arguments[0]);
+            if (!(arguments[1] instanceof NativeFunction.Unary)) {
+                throw new NativeError(
+                    "Second argument to 'map' must be a native function of one number.");
+            }
+            DoubleUnaryOperator function = ((NativeFunction.Unary)arguments[1]).function;
+            heap.reserve(LoxMemory.numbers(array.values.length));
+            LoxArray mapped = new LoxArray(array.values.length);
+            for (int i = 0; i < array.values.length; i++) {
+                mapped.values[i] = function.applyAsDouble(array.values[i]);
+            }
+            return mapped;
+        });
+        return natives;
+    }
+
+    private static LoxArray array(String name, Object argument) {
+        if (argument instanceof LoxArray) return (LoxArray)argument;
+        throw new NativeError("First argument to '" + name + "' must be an array.");
+    }
+
+    private static LoxChannel channel(String name, Object argument) {
+        if (argument instanceof LoxChannel) return (LoxChannel)argument;
+        throw new NativeError("First argument to '" + name + "' must be a channel.");
+    }
+
+    private static NativeError interrupted() {
+        Thread.currentThread().interrupt();
+        return new NativeError("Interrupted while waiting on a channel.");
+    }
+
+    public synchronized void define(String name, DoubleSupplier function) {
+        functions.put(name, new NativeFunction.Nullary(name, function));
+    }
+
+    public synchronized void define(String name, DoubleUnaryOperator function) {
+        functions.put(name, new NativeFunction.Unary(name, function));
+    }
+
+    public synchronized void define(String name, DoubleBinaryOperator function) {
+        functions.put(name, new NativeFunction.Binary(name, function));
+    }
+
+    public synchronized void define(String name, int arity, Generic function) {
+        if (arity < 0 || arity > 255) {
+            throw new IllegalArgumentException("Natives take 0 to 255 arguments.");
+        }
+        functions.put(name, new NativeFunction.Generic(name, arity, function));
+    }
+
+    public synchronized void define(String name, int arity, Allocating function) {
+        if (arity < 0 || arity > 255) {
+            throw new IllegalArgumentException("Natives take 0 to 255 arguments.");
+        }
+        functions.put(name, new NativeFunction.Allocating(name, arity, function));
+    }
+
+    synchronized NativeFunction get(String name) {
+        return functions.get(name);
+    }
+
+    synchronized void install(Environment globals) {
+        for (Map.Entry<String, NativeFunction> entry : functions.entrySet()) {
+            globals.define(entry.getKey(), entry.getValue());
+        }
+    }
+}
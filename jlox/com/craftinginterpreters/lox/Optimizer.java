@@ -0,0 +1,877 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Rewrites a resolved script so it does less work at run time, without
+// changing anything it can observe: what it prints, in which order, and
+// which runtime error it stops with, on which line.
+//
+// Each function body (and the script's top level) is lowered to a Cfg,
+// and the passes below read their facts off that graph and rewrite the
+// tree, in this order:
+//
+//   fold   Operators whose operands are all literals are computed now,
+//          so "a" + "b" or 60 * 60 is a single Literal.
+//   licm   Loop-invariant code motion. An operator expression (or an
+//          array's length, which never changes) inside a while loop
+//          whose variables are uncaptured locals nothing in the loop
+//          stores to is computed once by a Hoist statement just before the loop
+//          and read back from a frame slot through a Hoisted node. If
+//          computing it up front throws, the slot is left UNCOMPUTED and
+//          the Hoisted node evaluates the expression in place, so the
+//          error still happens exactly where it did (or doesn't, if that
+//          code never runs).
+//   cse    Common subexpressions inside a basic block: an operator
+//          expression computed a second time from the same variables,
+//          none of them written in between, reads the first result back
+//          from a temporary slot instead. The first one only stores its
+//          value in passing, and if it throws the second never runs.
+//   dse    Dead stores: an assignment statement to a local that no later
+//          read can see (by liveness over the graph) keeps only the
+//          evaluation of its value, and a statement left with nothing to
+//          evaluate is dropped.
+//   counted
+//          Counted loops: `while (i < limit) { ...; i = i + step; }`,
+//          which is what `for (var i = 0; i < n; i = i + 1)` desugars
+//          to, becomes a Counted statement when only that last statement
+//          writes the local i and nothing in the loop can change limit.
+//          The interpreter then steps i as a primitive long and stores it
+//          back into the frame only for a body that reads it.
+//
+// Temporaries get frame slots past the ones the Resolver handed out, so
+// every call still gets its own, and the frame sizes grow to match.
+final class Optimizer {
+
+    // The frame of the function being optimized
+    private final boolean[] cellParams;
+    private int nextSlot;
+
+    private Optimizer(int frameSize, boolean[] cellParams) {
+        this.nextSlot = frameSize;
+        this.cellParams = cellParams;
+    }
+
+    static Script optimize(Script script) {
+        Optimizer optimizer = new Optimizer(script.frameSize, new boolean[0]);
+        List<Stmt> statements = optimizer.run(script.statements);
+        return new Script(statements, script.parsed, script.diagnostics(),
+            script.tokenCount, optimizer.nextSlot);
+    }
+
+    private List<Stmt> run(List<Stmt> body) {
+        body = pass("functions", body, statements -> new Functions());
+        body = pass("fold", body, statements -> new Folder());
+        body = pass("licm", body, this::hoister);
+        body = pass("cse", body, this::commonSubexpressions);
+        body = pass("dse", body, this::deadStores);
+        body = pass("counted", body, this::countedLoops);
+        return body;
+    }
+
+    // Runs one pass over `body`; `prepare` analyses it and returns the
+    // Rewriter to apply, or null when there's nothing to rewrite
+    private List<Stmt> pass(String name, List<Stmt> body,
+            Function<List<Stmt>, Rewriter> prepare) {
+        LoxEvents.Optimize event = new LoxEvents.Optimize();
+        event.begin();
+        Rewriter rewriter = prepare.apply(body);
+        List<Stmt> result = rewriter == null ? body : rewriter.rewriteAll(body);
+        event.end();
+        if (event.shouldCommit()) {
+            event.pass = name;
+            event.rewrites = rewriter == null ? 0 : rewriter.rewrites;
+            event.commit();
+        }
+        return result;
+    }
+
+    // Nested functions are optimized on their own, frame and all
+    private static class Functions extends Rewriter {
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt) {
+            Optimizer optimizer = new Optimizer(stmt.frameSize, stmt.cellParams);
+            List<Stmt> body = optimizer.run(stmt.body);
+            if (body == stmt.body) return stmt;
+
+            rewrites++;
+            Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+            function.access = stmt.access;
+            function.slot = stmt.slot;
+            function.frameSize = optimizer.nextSlot;
+            function.captures = stmt.captures;
+            function.cellParams = stmt.cellParams;
+            return function;
+        }
+    }
+
+    private static class Folder extends Rewriter {
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            Expr expression = rewrite(expr.expression);
+            if (expression instanceof Expr.Literal) {
+                rewrites++;
+                return expression;
+            }
+            return expression == expr.expression ? expr : new Expr.Grouping(expression);
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr right = rewrite(expr.right);
+            if (right instanceof Expr.Literal) {
+                try {
+                    Object value = Interpreter.unary(expr.operator, ((Expr.Literal)right).value);
+                    rewrites++;
+                    return new Expr.Literal(value);
+                } catch (RuntimeError error) {
+                    // Left for run time, which reports it on the right line
+                }
+            }
+            return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+                try {
+                    Object value = Interpreter.binary(expr.operator,
+                        ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+                    rewrites++;
+                    return new Expr.Literal(value);
+                } catch (RuntimeError error) {
+                    // Left for run time, which reports it on the right line
+                }
+            }
+            if (left == expr.left && right == expr.right) return expr;
+            return new Expr.Binary(left, expr.operator, right, expr.site);
+        }
+    }
+
+    private Rewriter hoister(List<Stmt> body) {
+        Cfg cfg = Cfg.build(body, cellParams);
+        return cfg.loops.isEmpty() ? null : new Hoister(cfg);
+    }
+
+    private class Hoister extends Rewriter {
+        private final Cfg cfg;
+        // Every expression hoisted out of the loops around the one being
+        // rewritten, and the node that reads it back
+        private final Map<Expr, Expr.Hoisted> replacements = new IdentityHashMap<>();
+
+        Hoister(Cfg cfg) {
+            this.cfg = cfg;
+        }
+
+        @Override
+        Expr rewrite(Expr expr) {
+            Expr.Hoisted hoisted = replacements.get(expr);
+            return hoisted != null ? hoisted : super.rewrite(expr);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            Cfg.Loop loop = cfg.loops.get(stmt);
+            List<Expr> invariants = new ArrayList<>();
+            Consumer<Expr> collect = expr -> collect(expr, loop, invariants);
+            collect.accept(stmt.condition);
+            expressions(stmt.body, collect);
+            if (invariants.isEmpty()) return super.visitWhileStmt(stmt);
+
+            // Each hoisted expression is rewritten before it's added, so
+            // it reads what the enclosing loops hoisted but not itself
+            List<Expr> hoisted = new ArrayList<>(invariants.size());
+            for (Expr invariant : invariants) {
+                Expr.Hoisted node = new Expr.Hoisted(rewrite(invariant));
+                node.slot = nextSlot++;
+                hoisted.add(node);
+                replacements.put(invariant, node);
+                rewrites++;
+            }
+            Stmt rewritten = super.visitWhileStmt(stmt);
+            return new Stmt.Block(stmt.keyword,
+                Arrays.asList(new Stmt.Hoist(stmt.keyword, hoisted), rewritten));
+        }
+
+        // Finds the largest invariant operator expressions in `expr`. They
+        // have to read a variable: one that doesn't is a constant the
+        // folder left alone because it always throws.
+        private void collect(Expr expr, Cfg.Loop loop, List<Expr> invariants) {
+            // Already hoisted further out
+            if (replacements.containsKey(expr)) return;
+
+            if ((expr instanceof Expr.Binary || expr instanceof Expr.Unary
+                    || expr instanceof Expr.Grouping || expr instanceof Expr.Length)
+                    && hasOperator(expr) && readsVariable(expr) && invariant(expr, loop)) {
+                invariants.add(expr);
+                return;
+            }
+            for (Expr operand : operands(expr)) {
+                collect(operand, loop, invariants);
+            }
+        }
+
+        // Whether nothing in the loop can change what `expr` evaluates to
+        private boolean invariant(Expr expr, Cfg.Loop loop) {
+            if (expr instanceof Expr.Literal) return true;
+            if (expr instanceof Expr.Variable) {
+                Expr.Variable variable = (Expr.Variable)expr;
+                Cfg.Location location =
+                    Cfg.Location.of(variable.access, variable.slot, variable.name);
+                // Another task may write a global or a captured local at any
+                // time (see Environment), calls or no calls, and a loop
+                // waiting for that write has to see it
+                return !loop.writes.contains(location) && !cfg.escapes(location);
+            }
+            if (expr instanceof Expr.Grouping || expr instanceof Expr.Unary
+                    || expr instanceof Expr.Binary || expr instanceof Expr.Length) {
+                for (Expr operand : operands(expr)) {
+                    if (!invariant(operand, loop)) return false;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private Rewriter commonSubexpressions(List<Stmt> body) {
+        Cfg cfg = Cfg.build(body, cellParams);
+        // Each repeated expression, mapped to the first one in its block
+        Map<Expr, Expr> repeats = new IdentityHashMap<>();
+        for (Cfg.Block block : cfg.blocks) {
+            findRepeats(cfg, block, repeats);
+        }
+        if (repeats.isEmpty()) return null;
+
+        Map<Expr, Integer> temps = new IdentityHashMap<>();
+        for (Expr first : repeats.values()) {
+            if (!temps.containsKey(first)) temps.put(first, nextSlot++);
+        }
+
+        return new Rewriter() {
+            @Override
+            Expr rewrite(Expr expr) {
+                Expr first = repeats.get(expr);
+                if (first != null) {
+                    rewrites++;
+                    return temp(new Expr.Variable(tempName(temps.get(first), expr)),
+                        temps.get(first));
+                }
+                Integer slot = temps.get(expr);
+                if (slot != null) {
+                    return temp(new Expr.Assign(tempName(slot, expr), super.rewrite(expr)), slot);
+                }
+                return super.rewrite(expr);
+            }
+        };
+    }
+
+    private static class Available {
+        final Expr first;
+        final Set<Cfg.Location> reads;
+        final int index;
+
+        Available(Expr first, Set<Cfg.Location> reads, int index) {
+            this.first = first;
+            this.reads = reads;
+            this.index = index;
+        }
+    }
+
+    // Local value numbering over one block, keyed by the shape of each
+    // operator expression and the variables it reads
+    private static void findRepeats(Cfg cfg, Cfg.Block block, Map<Expr, Expr> repeats) {
+        Map<Object, Available> available = new HashMap<>();
+        // The repeats in this block as {repeat, first}, by the index of
+        // the repeat's EVAL op
+        Map<Integer, Expr[]> found = new HashMap<>();
+
+        for (int i = 0; i < block.ops.size(); i++) {
+            Cfg.Op op = block.ops.get(i);
+            switch (op.kind) {
+                case WRITE:
+                    available.values().removeIf(entry -> entry.reads.contains(op.location));
+                    break;
+                case CALL:
+                    available.values().removeIf(entry ->
+                        entry.reads.stream().anyMatch(cfg::escapes));
+                    break;
+                case EVAL: {
+                    if (op.start < 0) break;
+                    Expr node = (Expr)op.node;
+                    Set<Cfg.Location> reads = new HashSet<>();
+                    if (!pure(node, reads) || reads.isEmpty()) break;
+
+                    Object key = key(node);
+                    Available earlier = available.get(key);
+                    if (earlier == null) {
+                        available.put(key, new Available(node, reads, i));
+                        break;
+                    }
+                    // Reusing the whole expression skips its operands, so
+                    // nothing inside them can be reused or offered for reuse
+                    int start = op.start;
+                    found.keySet().removeIf(index -> index >= start);
+                    available.values().removeIf(entry -> entry.index >= start);
+                    found.put(i, new Expr[] { node, earlier.first });
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        for (Expr[] repeat : found.values()) {
+            repeats.put(repeat[0], repeat[1]);
+        }
+    }
+
+    private Rewriter deadStores(List<Stmt> body) {
+        Cfg cfg = Cfg.build(body, cellParams);
+        Map<Cfg.Block, Set<Cfg.Location>> liveOut = cfg.liveOut();
+        Set<Expr> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Cfg.Block block : cfg.blocks) {
+            Set<Cfg.Location> live = new HashSet<>(liveOut.get(block));
+            for (int i = block.ops.size() - 1; i >= 0; i--) {
+                Cfg.Op op = block.ops.get(i);
+                if (op.location == null || cfg.escapes(op.location)) continue;
+                if (op.kind == Cfg.Op.Kind.WRITE) {
+                    if (!live.contains(op.location) && op.node instanceof Expr.Assign) {
+                        dead.add((Expr)op.node);
+                    }
+                    live.remove(op.location);
+                } else if (op.kind == Cfg.Op.Kind.READ) {
+                    live.add(op.location);
+                }
+            }
+        }
+        if (dead.isEmpty()) return null;
+
+        return new Rewriter() {
+            @Override
+            public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+                if (!dead.contains(stmt.expression)) return super.visitExpressionStmt(stmt);
+                rewrites++;
+                return new Stmt.Expression(rewrite(((Expr.Assign)stmt.expression).value));
+            }
+
+            @Override
+            List<Stmt> rewriteAll(List<Stmt> statements) {
+                List<Stmt> rewritten = super.rewriteAll(statements);
+                if (rewritten == statements) return statements;
+                // A statement that only reads a local or a literal does nothing
+                List<Stmt> kept = new ArrayList<>(rewritten.size());
+                for (Stmt statement : rewritten) {
+                    if (!(statement instanceof Stmt.Expression)
+                            || !effectFree(((Stmt.Expression)statement).expression)) {
+                        kept.add(statement);
+                    }
+                }
+                return kept;
+            }
+        };
+    }
+
+    private Rewriter countedLoops(List<Stmt> body) {
+        Cfg cfg = Cfg.build(body, cellParams);
+        return cfg.loops.isEmpty() ? null : new CountedLoops(cfg);
+    }
+
+    private static class CountedLoops extends Rewriter {
+        private final Cfg cfg;
+
+        CountedLoops(Cfg cfg) {
+            this.cfg = cfg;
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            // Inner loops first; they don't change the shape checked here
+            Stmt.While loop = (Stmt.While)super.visitWhileStmt(stmt);
+            Stmt counted = counted(loop, cfg.loops.get(stmt));
+            if (counted == null) return loop;
+            rewrites++;
+            return counted;
+        }
+
+        private Stmt.Counted counted(Stmt.While loop, Cfg.Loop facts) {
+            if (!(loop.condition instanceof Expr.Binary)) return null;
+            Expr.Binary condition = (Expr.Binary)loop.condition;
+            switch (condition.operator.type) {
+                case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: break;
+                default: return null;
+            }
+            if (!(condition.left instanceof Expr.Variable)) return null;
+            Expr.Variable counter = (Expr.Variable)condition.left;
+            if (counter.access != Resolver.Access.LOCAL
+                    || cfg.escapes(Cfg.Location.frame(counter.slot))) {
+                return null;
+            }
+            if (!invariantLimit(condition.right, facts)) return null;
+
+            // The last statement of the body has to be `i = i + step` or
+            // `i = i - step`, with an integer literal step
+            if (!(loop.body instanceof Stmt.Block)) return null;
+            Stmt.Block block = (Stmt.Block)loop.body;
+            if (block.statements.isEmpty()) return null;
+            Stmt last = block.statements.get(block.statements.size() - 1);
+            if (!(last instanceof Stmt.Expression)
+                    || !(((Stmt.Expression)last).expression instanceof Expr.Assign)) {
+                return null;
+            }
+            Expr.Assign increment = (Expr.Assign)((Stmt.Expression)last).expression;
+            if (increment.access != Resolver.Access.LOCAL || increment.slot != counter.slot
+                    || !(increment.value instanceof Expr.Binary)) {
+                return null;
+            }
+            Expr.Binary next = (Expr.Binary)increment.value;
+            if (!(next.left instanceof Expr.Variable)
+                    || ((Expr.Variable)next.left).access != Resolver.Access.LOCAL
+                    || ((Expr.Variable)next.left).slot != counter.slot
+                    || !(next.right instanceof Expr.Literal)
+                    || !(((Expr.Literal)next.right).value instanceof Long)) {
+                return null;
+            }
+            long step = (Long)((Expr.Literal)next.right).value;
+            if (next.operator.type == TokenType.MINUS) {
+                step = -step;
+            } else if (next.operator.type != TokenType.PLUS) {
+                return null;
+            }
+
+            // Nothing else in the body may write the counter
+            List<Stmt> rest = block.statements.subList(0, block.statements.size() - 1);
+            SlotScan scan = new SlotScan(counter.slot);
+            scan.rewriteAll(rest);
+            if (scan.writes) return null;
+
+            Stmt.Counted counted = new Stmt.Counted(loop,
+                new Stmt.Block(block.brace, new ArrayList<>(rest)));
+            counted.slot = counter.slot;
+            counted.step = step;
+            counted.readsCounter = scan.reads;
+            return counted;
+        }
+
+        // The limit is evaluated once, so it must be something no
+        // iteration can change, and cheap enough not to be worth hoisting
+        private boolean invariantLimit(Expr limit, Cfg.Loop facts) {
+            if (limit instanceof Expr.Literal || limit instanceof Expr.Hoisted) return true;
+            if (!(limit instanceof Expr.Variable)) return false;
+            Expr.Variable variable = (Expr.Variable)limit;
+            Cfg.Location location = Cfg.Location.of(variable.access, variable.slot, variable.name);
+            return !facts.writes.contains(location) && !cfg.escapes(location);
+        }
+    }
+
+    // Finds the reads and writes of one local slot, without changing
+    // anything; nested functions can only reach locals through Cells
+    private static class SlotScan extends Rewriter {
+        private final int slot;
+        boolean reads = false;
+        boolean writes = false;
+
+        SlotScan(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (expr.access == Resolver.Access.LOCAL && expr.slot == slot) reads = true;
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            if (expr.access == Resolver.Access.LOCAL && expr.slot == slot) writes = true;
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            if (stmt.access == Resolver.Access.LOCAL && stmt.slot == slot) writes = true;
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitCountedStmt(Stmt.Counted stmt) {
+            if (stmt.slot == slot) writes = true;
+            return super.visitCountedStmt(stmt);
+        }
+    }
+
+    private static boolean effectFree(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        return expr instanceof Expr.Variable
+            && ((Expr.Variable)expr).access == Resolver.Access.LOCAL;
+    }
+
+    // Whether `expr` only combines literals and variables with operators
+    // that can't reach anything else; adds the variables it reads
+    private static boolean pure(Expr expr, Set<Cfg.Location> reads) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            reads.add(Cfg.Location.of(variable.access, variable.slot, variable.name));
+            return true;
+        }
+        if (expr instanceof Expr.Hoisted) {
+            Expr.Hoisted hoisted = (Expr.Hoisted)expr;
+            reads.add(Cfg.Location.frame(hoisted.slot));
+            return pure(hoisted.expression, reads);
+        }
+        if (expr instanceof Expr.Grouping || expr instanceof Expr.Unary
+                || expr instanceof Expr.Binary) {
+            for (Expr operand : operands(expr)) {
+                if (!pure(operand, reads)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Equal keys mean the same operators over the same literals and
+    // variables; grouping makes no difference to the value
+    private static Object key(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            return Arrays.asList("literal", value);
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            return Cfg.Location.of(variable.access, variable.slot, variable.name);
+        }
+        if (expr instanceof Expr.Hoisted) {
+            return Arrays.asList("hoisted", ((Expr.Hoisted)expr).slot);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return key(((Expr.Grouping)expr).expression);
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            return Arrays.asList(unary.operator.type, key(unary.right));
+        }
+        Expr.Binary binary = (Expr.Binary)expr;
+        return Arrays.asList(key(binary.left), binary.operator.type, key(binary.right));
+    }
+
+    private static boolean readsVariable(Expr expr) {
+        if (expr instanceof Expr.Variable) return true;
+        for (Expr operand : operands(expr)) {
+            if (readsVariable(operand)) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasOperator(Expr expr) {
+        if (expr instanceof Expr.Binary || expr instanceof Expr.Unary
+                || expr instanceof Expr.Length) {
+            return true;
+        }
+        for (Expr operand : operands(expr)) {
+            if (hasOperator(operand)) return true;
+        }
+        return false;
+    }
+
+    // Temporaries are locals with names no script can write
+    private static Token tempName(int slot, Expr at) {
+        return new Token(TokenType.IDENTIFIER, "$" + slot, null, Lines.of(at));
+    }
+
+    private static Expr temp(Expr.Variable variable, int slot) {
+        variable.access = Resolver.Access.LOCAL;
+        variable.slot = slot;
+        return variable;
+    }
+
+    private static Expr temp(Expr.Assign assign, int slot) {
+        assign.access = Resolver.Access.LOCAL;
+        assign.slot = slot;
+        return assign;
+    }
+
+    private static List<Expr> operands(Expr expr) {
+        if (expr instanceof Expr.Assign) return Arrays.asList(((Expr.Assign)expr).value);
+        if (expr instanceof Expr.Binary) {
+            return Arrays.asList(((Expr.Binary)expr).left, ((Expr.Binary)expr).right);
+        }
+        if (expr instanceof Expr.Call) {
+            List<Expr> operands = new ArrayList<>();
+            operands.add(((Expr.Call)expr).callee);
+            operands.addAll(((Expr.Call)expr).arguments);
+            return operands;
+        }
+        if (expr instanceof Expr.Grouping) return Arrays.asList(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Spawn) return Arrays.asList(((Expr.Spawn)expr).call);
+        if (expr instanceof Expr.Index) {
+            return Arrays.asList(((Expr.Index)expr).object, ((Expr.Index)expr).index);
+        }
+        if (expr instanceof Expr.SetIndex) {
+            Expr.SetIndex set = (Expr.SetIndex)expr;
+            return Arrays.asList(set.object, set.index, set.value);
+        }
+        if (expr instanceof Expr.Length) return Arrays.asList(((Expr.Length)expr).object);
+        if (expr instanceof Expr.Logical) {
+            return Arrays.asList(((Expr.Logical)expr).left, ((Expr.Logical)expr).right);
+        }
+        if (expr instanceof Expr.Unary) return Arrays.asList(((Expr.Unary)expr).right);
+        return Collections.emptyList();
+    }
+
+    // Calls `action` on each expression in `stmt` and the statements
+    // nested in it, but not in the bodies of nested functions
+    private static void expressions(Stmt stmt, Consumer<Expr> action) {
+        if (stmt instanceof Stmt.Block) {
+            for (Stmt statement : ((Stmt.Block)stmt).statements) {
+                expressions(statement, action);
+            }
+        } else if (stmt instanceof Stmt.Expression) {
+            action.accept(((Stmt.Expression)stmt).expression);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            action.accept(ifStmt.condition);
+            expressions(ifStmt.thenBranch, action);
+            if (ifStmt.elseBranch != null) expressions(ifStmt.elseBranch, action);
+        } else if (stmt instanceof Stmt.Var) {
+            Expr initializer = ((Stmt.Var)stmt).initializer;
+            if (initializer != null) action.accept(initializer);
+        } else if (stmt instanceof Stmt.Print) {
+            action.accept(((Stmt.Print)stmt).expression);
+        } else if (stmt instanceof Stmt.Return) {
+            Expr value = ((Stmt.Return)stmt).value;
+            if (value != null) action.accept(value);
+        } else if (stmt instanceof Stmt.While) {
+            action.accept(((Stmt.While)stmt).condition);
+            expressions(((Stmt.While)stmt).body, action);
+        } else if (stmt instanceof Stmt.Counted) {
+            expressions(((Stmt.Counted)stmt).loop, action);
+        } else if (stmt instanceof Stmt.Hoist) {
+            for (Expr hoisted : ((Stmt.Hoist)stmt).hoisted) {
+                action.accept(hoisted);
+            }
+        }
+    }
+
+    // Rebuilds a tree bottom-up, keeping every node whose children didn't
+    // change (and so sharing it with the tree it came from). The passes
+    // override the visit methods of the nodes they rewrite. Function
+    // declarations are left alone: their bodies are optimized separately.
+    private static class Rewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+        int rewrites = 0;
+
+        Expr rewrite(Expr expr) {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        Stmt rewrite(Stmt stmt) {
+            return stmt == null ? null : stmt.accept(this);
+        }
+
+        List<Stmt> rewriteAll(List<Stmt> statements) {
+            List<Stmt> rewritten = new ArrayList<>(statements.size());
+            boolean changed = false;
+            for (Stmt statement : statements) {
+                Stmt result = rewrite(statement);
+                if (result != statement) changed = true;
+                rewritten.add(result);
+            }
+            return changed ? rewritten : statements;
+        }
+
+        private List<Expr> rewriteExprs(List<Expr> exprs) {
+            List<Expr> rewritten = new ArrayList<>(exprs.size());
+            boolean changed = false;
+            for (Expr expr : exprs) {
+                Expr result = rewrite(expr);
+                if (result != expr) changed = true;
+                rewritten.add(result);
+            }
+            return changed ? rewritten : exprs;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = rewriteAll(stmt.statements);
+            return statements == stmt.statements ? stmt : new Stmt.Block(stmt.brace, statements);
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            Expr expression = rewrite(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            Expr condition = rewrite(stmt.condition);
+            Stmt thenBranch = rewrite(stmt.thenBranch);
+            Stmt elseBranch = rewrite(stmt.elseBranch);
+            if (condition == stmt.condition && thenBranch == stmt.thenBranch
+                    && elseBranch == stmt.elseBranch) {
+                return stmt;
+            }
+            return new Stmt.If(stmt.keyword, condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            Expr initializer = rewrite(stmt.initializer);
+            if (initializer == stmt.initializer) return stmt;
+            Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+            var.access = stmt.access;
+            var.slot = stmt.slot;
+            return var;
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            Expr expression = rewrite(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Print(stmt.keyword, expression);
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt) {
+            Expr value = rewrite(stmt.value);
+            return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            Expr condition = rewrite(stmt.condition);
+            Stmt body = rewrite(stmt.body);
+            if (condition == stmt.condition && body == stmt.body) return stmt;
+            return new Stmt.While(stmt.keyword, condition, body, stmt.site);
+        }
+
+        @Override
+        public Stmt visitCountedStmt(Stmt.Counted stmt) {
+            Stmt.While loop = (Stmt.While)rewrite(stmt.loop);
+            Stmt body = rewrite(stmt.body);
+            if (loop == stmt.loop && body == stmt.body) return stmt;
+            Stmt.Counted counted = new Stmt.Counted(loop, body);
+            counted.slot = stmt.slot;
+            counted.step = stmt.step;
+            counted.readsCounter = stmt.readsCounter;
+            return counted;
+        }
+
+        @Override
+        public Stmt visitHoistStmt(Stmt.Hoist stmt) {
+            List<Expr> hoisted = rewriteExprs(stmt.hoisted);
+            return hoisted == stmt.hoisted ? stmt : new Stmt.Hoist(stmt.keyword, hoisted);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr value = rewrite(expr.value);
+            if (value == expr.value) return expr;
+            Expr.Assign assign = new Expr.Assign(expr.name, value);
+            assign.access = expr.access;
+            assign.slot = expr.slot;
+            return assign;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+            return new Expr.Binary(left, expr.operator, right, expr.site);
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            Expr callee = rewrite(expr.callee);
+            List<Expr> arguments = rewriteExprs(expr.arguments);
+            if (callee == expr.callee && arguments == expr.arguments) return expr;
+            return new Expr.Call(callee, expr.paren, arguments);
+        }
+
+        @Override
+        public Expr visitIndexExpr(Expr.Index expr) {
+            Expr object = rewrite(expr.object);
+            Expr index = rewrite(expr.index);
+            if (object == expr.object && index == expr.index) return expr;
+            return new Expr.Index(object, expr.bracket, index);
+        }
+
+        @Override
+        public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+            Expr object = rewrite(expr.object);
+            Expr index = rewrite(expr.index);
+            Expr value = rewrite(expr.value);
+            if (object == expr.object && index == expr.index && value == expr.value) {
+                return expr;
+            }
+            return new Expr.SetIndex(object, expr.bracket, index, value);
+        }
+
+        @Override
+        public Expr visitLengthExpr(Expr.Length expr) {
+            Expr object = rewrite(expr.object);
+            return object == expr.object ? expr : new Expr.Length(object, expr.name);
+        }
+
+        @Override
+        public Expr visitSpawnExpr(Expr.Spawn expr) {
+            Expr call = rewrite(expr.call);
+            return call == expr.call ? expr : new Expr.Spawn(expr.keyword, call);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            Expr expression = rewrite(expr.expression);
+            return expression == expr.expression ? expr : new Expr.Grouping(expression);
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr left = rewrite(expr.left);
+            Expr right = rewrite(expr.right);
+            if (left == expr.left && right == expr.right) return expr;
+            return new Expr.Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr right = rewrite(expr.right);
+            return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        }
+
+        @Override
+        public Expr visitHoistedExpr(Expr.Hoisted expr) {
+            Expr expression = rewrite(expr.expression);
+            if (expression == expr.expression) return expr;
+            Expr.Hoisted hoisted = new Expr.Hoisted(expression);
+            hoisted.slot = expr.slot;
+            return hoisted;
+        }
+    }
+}
@@ -2,7 +2,11 @@ package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -15,16 +19,60 @@ public class Parser {
 
     Logger logger = Logger.getLogger(Parser.class.getName());
 
-    private static class ParseError extends RuntimeException{}
+    // Only unwinds to synchronize(), which happens once per bad statement,
+    // so it skips the stack trace nobody would look at
+    private static class ParseError extends RuntimeException {
+        ParseError() {
+            super(null, null, false, false);
+        }
+    }
 
-    final List<Token> tokens;
-    private int current = 0;
+    // The parser only ever looks one token ahead and one back, so it
+    // pulls tokens one at a time; they may still be being scanned (see
+    // LoxPipeline). The next token is only pulled once something looks at
+    // it, so a statement is finished without waiting for the one after.
+    private final Iterator<Token> tokens;
+    private final ErrorReporter reporter;
+    private Token next = null;
+    private Token previous = null;
+
+    // Literals and pure subexpressions are hash-consed, so a big script that
+    // says `1`, `true` or `x == nil` thousands of times holds one node for
+    // each. A shared node keeps the tokens of its first occurrence, which is
+    // only safe because pure nodes can never report a runtime error. That
+    // rules out arithmetic too: its result counts against the heap cap
+    // (see LoxMemory), and going over is reported at the operator.
+    private final Expr.Interner interner = new Expr.Interner();
+    // The value type (Void for nil) each interned node always evaluates to.
+    // Nodes missing from here aren't pure: they read variables, do
+    // arithmetic, or could throw on some operand types.
+    private final Map<Expr, Class<?>> pureTypes = new IdentityHashMap<>();
+
+    // Operators and loops are numbered in source order, from 1, for the
+    // type feedback (see TypeFeedback). Pure operators can't throw or
+    // change type, so they aren't worth numbering: they're all site 0.
+    private int binarySites = 0;
+    private int loopSites = 0;
+
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens.iterator(), reporter);
+    }
 
-    Parser(List<Token> tokens) {
+    // `tokens` has to end with an EOF token
+    Parser(Iterator<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     public List<Stmt> parse() {
+        List<Stmt> statements = new ArrayList<Stmt>();
+        parse(statements::add);
+        return statements;
+    }
+
+    // Hands each top-level statement to `sink` as soon as it's parsed
+    // (null for one that had a syntax error)
+    void parse(Consumer<Stmt> sink) {
         logger.setLevel(Level.OFF);
         // ConsoleHandler handler = new ConsoleHandler();
         // handler.setFormatter(new SimpleFormatter() {
@@ -34,11 +82,9 @@ public class Parser {
         // System.out.println(logger.getLevel());
         // this.logger = Logger.getLogger(Parser.class.getName());
 
-        List<Stmt> statements = new ArrayList<Stmt>();
         while (!isAtEnd()) {
-            statements.add(declaration());
+            sink.accept(declaration());
         }
-        return statements;
     }
 
     private boolean match(TokenType... types) {
@@ -52,7 +98,7 @@ public class Parser {
     }
 
     private Token consume(TokenType type, String message) {
-        logger.info(String.format("Consuming type: %s", type));
+        logger.info(() -> String.format("Consuming type: %s", type));
         if (check(type)) {
             return advance();
         }
@@ -60,7 +106,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -73,7 +119,7 @@ public class Parser {
             // If our next token is one of the below, we are (likely) starting
             // a *new* statement
             switch (peek().type) {
-                case CLASS, FOR, FUN, IF, PRINT, RETURN, VAR, WHILE: return;
+                case CLASS, FOR, FUN, IF, PRINT, RETURN, SPAWN, VAR, WHILE: return;
             }
             advance();
         }
@@ -84,39 +130,43 @@ public class Parser {
             return false;
         TokenType nextType = peek().type;
         logger.info("Checking next type...");
-        logger.info(String.format("Next type: %s", nextType));
+        logger.info(() -> String.format("Next type: %s", nextType));
         return (nextType == type);
     }
 
     private Token advance() {
         logger.info("Advancing token");
-        if (!isAtEnd())
-            current++;
+        if (!isAtEnd()) {
+            previous = next;
+            next = null;
+        }
         return previous();
     }
 
     private boolean isAtEnd() {
         boolean isAtEnd = (peek().type == EOF);
-        logger.info(String.format("Is at end: %s", isAtEnd));
+        logger.info(() -> String.format("Is at end: %s", isAtEnd));
         return isAtEnd;
     }
 
     private Token peek() {
         // Return the current token we have yet to consume
-        Token nextToken = tokens.get(current);
-        logger.info(String.format("Next token: %s", nextToken));
+        if (next == null) next = tokens.next();
+        Token nextToken = next;
+        logger.info(() -> String.format("Next token: %s", nextToken));
         return nextToken;
     }
 
     private Token previous() {
         // Returns the most recently-consumed token
-        Token previousToken = tokens.get(current - 1);
-        logger.info(String.format("Previous token: %s", previousToken));
+        Token previousToken = previous;
+        logger.info(() -> String.format("Previous token: %s", previousToken));
         return previousToken;
     }
 
     private Stmt declaration() {
         try{
+            if (match(FUN)) return function("function");
             if (match(VAR)) return varDeclaration();
             return statement();
         } catch (ParseError error) {
@@ -125,6 +175,26 @@ public class Parser {
         }
     }
 
+    private Stmt.Function function(String kind) {
+        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= 255) {
+                    // Reported, but the parser is still fine, so no throw
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        List<Stmt> body = block();
+        return new Stmt.Function(name, parameters, body);
+    }
+
     private Stmt varDeclaration() {
         Token name = consume(IDENTIFIER, "Expect variable name.");
 
@@ -137,25 +207,30 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body, ++loopSites);
     }
 
     private Stmt statement() {
         if (match(FOR)) return forStatement();
         if (match(IF)) return ifStatement();
         if (match(PRINT)) return printStatement();
+        if (match(RETURN)) return returnStatement();
+        if (match(SPAWN)) return spawnStatement();
         if (match(WHILE)) return whileStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(LEFT_BRACE)) return new Stmt.Block(previous(), block());
 
         return expressionStatement();
     }
 
     private Stmt forStatement() {
+        // The desugared nodes below all report the line of the 'for' keyword
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'");
 
         Stmt initializer;
@@ -186,25 +261,26 @@ public class Parser {
         if (increment != null) {
             // The desugared body is the old body with the increment
             // clause (e.g. i++) run at the end of every iteration
-            body = new Stmt.Block(Arrays.asList(
+            body = new Stmt.Block(keyword, Arrays.asList(
                 body,
                 new Stmt.Expression(increment)
             ));
         }
 
         // If there is no condition, treat the loop as infinite
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        if (condition == null) condition = literal(true);
+        body = new Stmt.While(keyword, condition, body, ++loopSites);
 
         // If there is an initializer, put it before the desugared while loop
         if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+            body = new Stmt.Block(keyword, Arrays.asList(initializer, body));
         }
 
         return body;
     }
 
     private Stmt ifStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after if condition.");
@@ -217,7 +293,7 @@ public class Parser {
             elseBranch = statement();
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return new Stmt.If(keyword, condition, thenBranch, elseBranch);
     }
 
     private List<Stmt> block() {
@@ -231,10 +307,44 @@ public class Parser {
         return statements;
     }
 
+    private Stmt spawnStatement() {
+        Token keyword = previous();
+        if (!match(LEFT_BRACE)) {
+            // `spawn f(x);`, a spawn expression as a statement
+            Expr spawn = spawn(keyword);
+            consume(SEMICOLON, "Expect ';' after expression.");
+            return new Stmt.Expression(spawn);
+        }
+
+        // `spawn { ... }` spawns a call to a function with the block as
+        // its body. It's a closure, so the block sees the variables around
+        // it as any function declared there would. `spawn` is a keyword,
+        // so the function's name can't clash with a real variable.
+        Token name = new Token(IDENTIFIER, "spawn", null, keyword.line);
+        Stmt.Function function = new Stmt.Function(name, new ArrayList<>(), block());
+        Expr call = new Expr.Call(new Expr.Variable(name), keyword, new ArrayList<>());
+        return new Stmt.Block(keyword, Arrays.asList(
+            function,
+            new Stmt.Expression(new Expr.Spawn(keyword, call))
+        ));
+    }
+
     private Stmt printStatement() {
+        Token keyword = previous();
         Expr value = expression();
         consume(SEMICOLON, "Expect ';' after print.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
+    }
+
+    private Stmt returnStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        // A bare `return;` returns nil
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return new Stmt.Return(keyword, value);
     }
 
     private Stmt expressionStatement() {
@@ -268,6 +378,12 @@ public class Parser {
                 return new Expr.Assign(name, value);
             }
 
+            // ...or an array element
+            if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
+            }
+
             // We report an error, but don't throw it here,
             // because the parser isn't in an invalid state
             error(equals, "Invalid assignment target");
@@ -314,7 +430,7 @@ public class Parser {
         while (match(BANG_EQUAL, EQUAL_EQUAL)) {
             Token operator = previous();
             Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = binary(expr, operator, right);
         }
 
         return expr;
@@ -328,7 +444,7 @@ public class Parser {
         while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
             Token operator = previous();
             Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = binary(expr, operator, right);
         }
 
         return expr;
@@ -342,7 +458,7 @@ public class Parser {
         while (match(MINUS, PLUS)) {
             Token operator = previous();
             Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = binary(expr, operator, right);
         }
 
         return expr;
@@ -356,7 +472,7 @@ public class Parser {
         while (match(SLASH, STAR)) {
             Token operator = previous();
             Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+            expr = binary(expr, operator, right);
         }
 
         return expr;
@@ -364,32 +480,85 @@ public class Parser {
 
     private Expr unary(){
         logger.info("Evaluating unary");
-        // Rule: unary -> ("!" | "-") unary | primary
+        // Rule: unary -> ("!" | "-") unary | "spawn" call | call
         if (match(MINUS, BANG)) {
             Token operator = previous();
             Expr right = unary();
-            return new Expr.Unary(operator, right);
+            return unary(operator, right);
         }
-        
-        // If we don't find a unary operator, just match primary
-        return primary();
+        if (match(SPAWN)) return spawn(previous());
+
+        // If we don't find a unary operator, just match call
+        return call();
+    }
+
+    private Expr call() {
+        // Rule: call -> primary ( "(" arguments? ")" | "[" expression "]"
+        //                       | "." "length" )*
+        // Each pair of parentheses calls whatever the previous call returned,
+        // and each pair of brackets indexes it
+        Expr expr = primary();
+
+        while (true) {
+            if (match(LEFT_PAREN)) {
+                expr = finishCall(expr);
+            } else if (match(LEFT_BRACKET)) {
+                Expr index = expression();
+                // Like a call's closing paren, this is where errors go
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
+            } else if (match(DOT)) {
+                // Arrays are the only values with a property
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                if (!name.lexeme.equals("length")) error(name, "Expect 'length' after '.'.");
+                expr = new Expr.Length(expr, name);
+            } else {
+                break;
+            }
+        }
+
+        return expr;
+    }
+
+    private Expr spawn(Token keyword) {
+        Expr call = call();
+        if (!(call instanceof Expr.Call)) {
+            throw error(keyword, "Expect a function call after 'spawn'.");
+        }
+        return new Expr.Spawn(keyword, call);
+    }
+
+    private Expr finishCall(Expr callee) {
+        List<Expr> arguments = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (arguments.size() >= 255) {
+                    error(peek(), "Can't have more than 255 arguments.");
+                }
+                arguments.add(expression());
+            } while (match(COMMA));
+        }
+
+        // The closing paren's line is where call errors get reported
+        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return new Expr.Call(callee, paren, arguments);
     }
 
     private Expr primary() {
         logger.info("Evaluating primary");
         // Rule: primary -> NUMBER | STRING | "true" | "false" | "nil" | "(" expression
         // ")"
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(NIL)) return new Expr.Literal(null);
+        if (match(TRUE)) return literal(true);
+        if (match(FALSE)) return literal(false);
+        if (match(NIL)) return literal(null);
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return literal(previous().literal);
         }
         if (match(LEFT_PAREN)) {
             Expr expression = expression();
             consume(RIGHT_PAREN, "Expect ')' after expression.");
             logger.info("Found grouping");
-            return new Expr.Grouping(expression);
+            return grouping(expression);
         }
         if (match(IDENTIFIER)) {
             return new Expr.Variable(previous());
@@ -397,4 +566,60 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
+    private Expr literal(Object value) {
+        Expr expr = interner.literal(value);
+        Class<?> type = value == null ? Void.class : value.getClass();
+        // Long or Double, both are just numbers here
+        if (type == Long.class) type = Double.class;
+        pureTypes.put(expr, type);
+        return expr;
+    }
+
+    private Expr grouping(Expr expression) {
+        Class<?> type = pureTypes.get(expression);
+        if (type == null) return new Expr.Grouping(expression);
+
+        Expr expr = interner.grouping(expression);
+        pureTypes.put(expr, type);
+        return expr;
+    }
+
+    private Expr unary(Token operator, Expr right) {
+        // '!' works on anything and makes a boolean, which costs nothing;
+        // '-' makes a number, which may be counted against the heap cap
+        if (pureTypes.get(right) == null || operator.type != BANG) {
+            return new Expr.Unary(operator, right);
+        }
+
+        Expr expr = interner.unary(operator, right);
+        pureTypes.put(expr, Boolean.class);
+        return expr;
+    }
+
+    private Expr binary(Expr left, Token operator, Expr right) {
+        Class<?> type = pureBinaryType(
+            pureTypes.get(left), operator.type, pureTypes.get(right));
+        if (type == null) return new Expr.Binary(left, operator, right, ++binarySites);
+
+        Expr expr = interner.binary(left, operator, right, 0);
+        pureTypes.put(expr, type);
+        return expr;
+    }
+
+    // What a binary expression over two pure operands evaluates to, or null
+    // if it isn't pure (an operand isn't, the operator would throw on them,
+    // or the result is a number or string that counts against the heap cap)
+    private static Class<?> pureBinaryType(
+            Class<?> left, TokenType operator, Class<?> right) {
+        if (left == null || right == null) return null;
+        boolean numbers = left == Double.class && right == Double.class;
+        switch (operator) {
+            case EQUAL_EQUAL, BANG_EQUAL:
+                return Boolean.class;
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL:
+                return numbers ? Boolean.class : null;
+            default:
+                return null;
+        }
+    }
 }
@@ -0,0 +1,401 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Works out, once and before anything runs, where every variable lives.
+//
+// Globals (anything declared outside all blocks and functions) stay in
+// the interpreter's global Environment and are looked up by name, so the
+// REPL can keep adding and redefining them. Every other variable gets a
+// fixed slot in its function's frame, a plain Object[] sized here, so
+// reading a local at run time is an array load instead of a walk over
+// HashMaps. Code outside any function gets a frame of its own, for the
+// locals of top-level blocks.
+//
+// A local that some inner function refers to is stored in a Cell instead,
+// and the inner function's closure copies just that Cell (see
+// Stmt.Function.captures). Locals no closure uses stay bare in the frame.
+//
+// The results are written into the nodes themselves (the fields after
+// the ';' in GenerateAst), which is safe because a Script is only
+// published once resolution has finished.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // How a Variable, Assign, Var or Function node reaches its variable
+    enum Access {
+        // By name, in the global Environment
+        GLOBAL,
+        // frame[slot] holds the value
+        LOCAL,
+        // frame[slot] holds a Cell with the value
+        CELL,
+        // captures[slot] of the running closure holds a Cell with the value
+        CAPTURE
+    }
+
+    private static class Local {
+        final String name;
+        final int slot;
+        boolean defined = false;
+        boolean captured = false;
+        // The declaring node and every use in the same function, which all
+        // need to know whether the variable ended up in a Cell
+        final List<Object> nodes = new ArrayList<>();
+
+        Local(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+    }
+
+    // A function (or the top level of the script) being resolved
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final Stmt.Function declaration;
+        final List<Map<String, Local>> scopes = new ArrayList<>();
+        final List<Integer> captures = new ArrayList<>();
+        int nextSlot = 0;
+        int frameSize = 0;
+
+        FunctionScope(FunctionScope enclosing, Stmt.Function declaration) {
+            this.enclosing = enclosing;
+            this.declaration = declaration;
+        }
+
+        Local find(String name) {
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                Local local = scopes.get(i).get(name);
+                if (local != null) return local;
+            }
+            return null;
+        }
+    }
+
+    private final ErrorReporter reporter;
+    private FunctionScope function = new FunctionScope(null, null);
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    // Resolves a whole script and returns the size of its top-level frame
+    int resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+        return function.frameSize;
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        function.scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        Map<String, Local> scope = function.scopes.remove(function.scopes.size() - 1);
+        for (Local local : scope.values()) {
+            Access access = local.captured ? Access.CELL : Access.LOCAL;
+            for (Object node : local.nodes) {
+                setAccess(node, access, local.slot);
+            }
+        }
+        // Sibling blocks can reuse the slots of this one
+        function.nextSlot -= scope.size();
+    }
+
+    // Returns null at global scope, where nothing needs a slot
+    private Local declare(Token name) {
+        if (function.scopes.isEmpty()) return null;
+
+        Map<String, Local> scope = function.scopes.get(function.scopes.size() - 1);
+        if (scope.containsKey(name.lexeme)) {
+            reporter.error(name, "Already a variable with this name in this scope.");
+            return scope.get(name.lexeme);
+        }
+
+        Local local = new Local(name.lexeme, function.nextSlot++);
+        function.frameSize = Math.max(function.frameSize, function.nextSlot);
+        scope.put(name.lexeme, local);
+        return local;
+    }
+
+    private void resolveName(Object node, Token name) {
+        Local local = function.find(name.lexeme);
+        if (local != null) {
+            local.nodes.add(node);
+            setAccess(node, Access.LOCAL, local.slot);
+            return;
+        }
+
+        int capture = capture(function, name.lexeme);
+        setAccess(node, capture < 0 ? Access.GLOBAL : Access.CAPTURE, capture);
+    }
+
+    // Finds `name` in the functions around `scope` and returns the index in
+    // scope's captures it will be copied to, or -1 if it's a global.
+    // Functions in between capture it too, so it can be passed along.
+    private static int capture(FunctionScope scope, String name) {
+        if (scope.enclosing == null) return -1;
+
+        Local local = scope.enclosing.find(name);
+        if (local != null) {
+            local.captured = true;
+            return addCapture(scope, local.slot);
+        }
+
+        int outer = capture(scope.enclosing, name);
+        if (outer < 0) return -1;
+        return addCapture(scope, -1 - outer);
+    }
+
+    private static int addCapture(FunctionScope scope, int source) {
+        int index = scope.captures.indexOf(source);
+        if (index >= 0) return index;
+        scope.captures.add(source);
+        return scope.captures.size() - 1;
+    }
+
+    private static void setAccess(Object node, Access access, int slot) {
+        if (node instanceof Expr.Variable) {
+            ((Expr.Variable)node).access = access;
+            ((Expr.Variable)node).slot = slot;
+        } else if (node instanceof Expr.Assign) {
+            ((Expr.Assign)node).access = access;
+            ((Expr.Assign)node).slot = slot;
+        } else if (node instanceof Stmt.Var) {
+            ((Stmt.Var)node).access = access;
+            ((Stmt.Var)node).slot = slot;
+        } else if (node instanceof Stmt.Function) {
+            ((Stmt.Function)node).access = access;
+            ((Stmt.Function)node).slot = slot;
+        }
+        // Parameters are Tokens; resolveFunction handles those
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            resolve(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Declared and defined before the body, so it can call itself
+        Local local = declare(stmt.name);
+        if (local == null) {
+            setAccess(stmt, Access.GLOBAL, -1);
+        } else {
+            local.defined = true;
+            local.nodes.add(stmt);
+            setAccess(stmt, Access.LOCAL, local.slot);
+        }
+
+        resolveFunction(stmt);
+        return null;
+    }
+
+    private void resolveFunction(Stmt.Function stmt) {
+        function = new FunctionScope(function, stmt);
+        beginScope();
+
+        // Parameters take the first slots, in order, so a call can
+        // evaluate its arguments straight into the new frame
+        List<Local> params = new ArrayList<>();
+        for (Token param : stmt.params) {
+            Local local = declare(param);
+            local.defined = true;
+            params.add(local);
+        }
+        for (Stmt statement : stmt.body) {
+            resolve(statement);
+        }
+
+        stmt.cellParams = new boolean[params.size()];
+        for (int i = 0; i < params.size(); i++) {
+            stmt.cellParams[i] = params.get(i).captured;
+        }
+        endScope();
+
+        stmt.frameSize = function.frameSize;
+        stmt.captures = new int[function.captures.size()];
+        for (int i = 0; i < stmt.captures.length; i++) {
+            stmt.captures[i] = function.captures.get(i);
+        }
+        function = function.enclosing;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // Declared before the initializer is resolved, so it can spot
+        // `var a = a;`, but only defined after it
+        Local local = declare(stmt.name);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (local == null) {
+            setAccess(stmt, Access.GLOBAL, -1);
+        } else {
+            local.defined = true;
+            local.nodes.add(stmt);
+            setAccess(stmt, Access.LOCAL, local.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (function.declaration == null) {
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    // The Optimizer only adds Hoist, Hoisted and Counted nodes to
+    // resolved trees
+    @Override
+    public Void visitHoistStmt(Stmt.Hoist stmt) {
+        throw new IllegalStateException("Hoist statements are never resolved.");
+    }
+
+    @Override
+    public Void visitCountedStmt(Stmt.Counted stmt) {
+        throw new IllegalStateException("Counted loops are never resolved.");
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        resolveName(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLengthExpr(Expr.Length expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSpawnExpr(Expr.Spawn expr) {
+        resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (!function.scopes.isEmpty()) {
+            Map<String, Local> scope = function.scopes.get(function.scopes.size() - 1);
+            Local local = scope.get(expr.name.lexeme);
+            if (local != null && !local.defined) {
+                reporter.error(expr.name,
+                    "Can't read local variable in its own initializer.");
+            }
+        }
+        resolveName(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpr(Expr.Hoisted expr) {
+        throw new IllegalStateException("Hoisted expressions are never resolved.");
+    }
+}
@@ -1,10 +1,13 @@
 package com.craftinginterpreters.lox;
 
+// Reported at `token`, so the Java stack trace would only say where in the
+// interpreter it was thrown; it's skipped, which makes throwing one about
+// as cheap as allocating it (like Natives.NativeError).
 public class RuntimeError extends RuntimeException {
     final Token token;
 
     RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
 }
\ No newline at end of file
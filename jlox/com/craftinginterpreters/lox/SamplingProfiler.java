@@ -0,0 +1,174 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+// A sampling profiler for Lox source.
+//
+// The interpreter keeps a stack of the statements it is currently executing
+// (see Interpreter.execute), plus the declaration of every function call in
+// progress (Interpreter.invoke). A background thread wakes up every
+// `interval` and copies the Function/Block/While/If frames of that stack
+// plus the innermost statement, which gives us a Lox-level call stack like
+//   <script>;while:3;block:3;fun fib:1;if:2;return:2
+// Samples are aggregated in the "collapsed stack" format that
+// flamegraph.pl, speedscope and friends read directly.
+//
+// Overhead:
+// - With no profiler attached, Interpreter.execute pays a single null check.
+// - With a profiler attached, every executed statement does an array store
+//   on entry and another on exit. This is independent of the interval;
+//   on a 20M iteration counting loop it stayed within run-to-run noise
+//   (under ~10% of run time).
+// - Everything else (walking the stack, building frame names, counting)
+//   happens on the sampler thread, so it costs a core's worth of CPU time
+//   proportional to the sampling rate, not interpreter time.
+//   The default 1ms interval is ~1000 samples/s; raise the interval or
+//   lower maxDepth to make the sampler cheaper.
+//
+// The stack is read without any synchronization. The sampler may see a
+// frame that has just been popped or miss one just pushed; for a
+// statistical profile that is an acceptable trade for keeping the
+// interpreter side to two plain stores.
+class SamplingProfiler {
+
+    static final long DEFAULT_INTERVAL_MICROS = 1000;
+    static final int DEFAULT_MAX_DEPTH = 128;
+
+    private static final String ROOT = "<script>";
+
+    // Written only by the interpreter thread
+    private Stmt[] stack = new Stmt[64];
+    private int depth = 0;
+
+    private final long intervalNanos;
+    private final int maxDepth;
+
+    // Only touched by the sampler thread until stop() has joined it
+    private final Map<String, Long> counts = new HashMap<>();
+    private final Map<Stmt, String> frameNames = new IdentityHashMap<>();
+    private long samples = 0;
+
+    private volatile boolean running = false;
+    private Thread sampler;
+
+    SamplingProfiler() {
+        this(DEFAULT_INTERVAL_MICROS, DEFAULT_MAX_DEPTH);
+    }
+
+    SamplingProfiler(long intervalMicros, int maxDepth) {
+        if (intervalMicros <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive.");
+        }
+        this.intervalNanos = intervalMicros * 1000;
+        this.maxDepth = maxDepth;
+    }
+
+    void enter(Stmt stmt) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = stmt;
+    }
+
+    void exit() {
+        stack[--depth] = null;
+    }
+
+    void start() {
+        running = true;
+        sampler = new Thread(this::sampleLoop, "lox-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        if (sampler == null) return;
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    long sampleCount() {
+        return samples;
+    }
+
+    // Writes one "frame;frame;frame count" line per distinct stack.
+    // Must only be called after stop().
+    void writeCollapsed(Writer writer) throws IOException {
+        for (Map.Entry<String, Long> entry : new TreeMap<>(counts).entrySet()) {
+            writer.write(entry.getKey());
+            writer.write(' ');
+            writer.write(Long.toString(entry.getValue()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private void sampleLoop() {
+        List<Stmt> frames = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            // Grab both fields once; the interpreter may swap the array under us
+            Stmt[] snapshot = stack;
+            int size = Math.min(depth, snapshot.length);
+            if (size == 0) continue;
+
+            frames.clear();
+            for (int i = 0; i < size; i++) {
+                Stmt stmt = snapshot[i];
+                if (stmt == null) continue;
+                boolean isLeaf = (i == size - 1);
+                if (isLeaf || stmt instanceof Stmt.Function || stmt instanceof Stmt.Block
+                        || stmt instanceof Stmt.While || stmt instanceof Stmt.Counted
+                        || stmt instanceof Stmt.If) {
+                    frames.add(stmt);
+                }
+            }
+
+            key.setLength(0);
+            key.append(ROOT);
+            // Keep the innermost frames when the stack is too deep
+            int from = Math.max(0, frames.size() - maxDepth);
+            for (int i = from; i < frames.size(); i++) {
+                key.append(';').append(frameName(frames.get(i)));
+            }
+            counts.merge(key.toString(), 1L, Long::sum);
+            samples++;
+        }
+    }
+
+    private String frameName(Stmt stmt) {
+        String name = frameNames.get(stmt);
+        if (name == null) {
+            name = kind(stmt) + ":" + Lines.of(stmt);
+            frameNames.put(stmt, name);
+        }
+        return name;
+    }
+
+    private static String kind(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) return "block";
+        if (stmt instanceof Stmt.While || stmt instanceof Stmt.Counted) return "while";
+        if (stmt instanceof Stmt.If) return "if";
+        if (stmt instanceof Stmt.Print) return "print";
+        if (stmt instanceof Stmt.Var) return "var " + ((Stmt.Var)stmt).name.lexeme;
+        if (stmt instanceof Stmt.Function) return "fun " + ((Stmt.Function)stmt).name.lexeme;
+        if (stmt instanceof Stmt.Return) return "return";
+        if (stmt instanceof Stmt.Hoist) return "hoist";
+        return "expr";
+    }
+}
@@ -1,14 +1,28 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
-    private final String source;
+    // The whole source text, or for a streamed scan (see LoxPipeline)
+    // the buffer holding the part of the input read so far
+    private final CharSequence source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<Token>();
+    // Where finished tokens go: the list above, or the next stage
+    private final Consumer<Token> sink;
+
+    // Only set when streaming
+    private final Reader input;
+    private final StringBuilder buffer;
+    private final char[] chunk;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -25,6 +39,7 @@ class Scanner {
         Map.entry("or", OR),
         Map.entry("print", PRINT),
         Map.entry("return", RETURN),
+        Map.entry("spawn", SPAWN),
         Map.entry("super", SUPER),
         Map.entry("this", THIS),
         Map.entry("true", TRUE),
@@ -33,22 +48,67 @@ class Scanner {
     );
 
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
+        this.sink = tokens::add;
+        this.input = null;
+        this.buffer = null;
+        this.chunk = null;
+    }
+
+    // Scans `input` as it arrives, handing each token to `sink` as soon
+    // as it's complete. Only the text of the token being scanned is kept.
+    Scanner(Reader input, ErrorReporter reporter, Consumer<Token> sink) {
+        this.buffer = new StringBuilder();
+        this.source = buffer;
+        this.reporter = reporter;
+        this.sink = sink;
+        this.input = input;
+        this.chunk = new char[8192];
     }
 
     List<Token> scanTokens() {
+        scan();
+        return tokens;
+    }
+
+    void scan() {
         while (!isAtEnd()) {
+            // Nothing before this token is looked at again
+            if (buffer != null && current >= chunk.length) {
+                buffer.delete(0, current);
+                current = 0;
+            }
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        sink.accept(new Token(EOF, "", null, line));
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= source.length() && !fill(current);
+    }
+
+    // Reads input until the character at `index` is there; false when
+    // the input ends first (or there's no input, only a source string)
+    private boolean fill(int index) {
+        if (input == null) return false;
+        try {
+            while (buffer.length() <= index) {
+                int read = input.read(chunk);
+                if (read < 0) return false;
+                buffer.append(chunk, 0, read);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String text(int from, int to) {
+        return source.subSequence(from, to).toString();
     }
 
     private void scanToken() {
@@ -66,6 +126,12 @@ class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -130,7 +196,7 @@ class Scanner {
                     identifier();
                 } else {
                     // Sets hadError so code only gets scanned, not executed
-                    Lox.error(line, String.format("Unexpected character: %s", c));
+                    reporter.error(line, String.format("Unexpected character: %s", c));
                 }
                 break;
         }
@@ -139,7 +205,7 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
+        String text = text(start, current);
         TokenType type = keywords.get(text);
         // If we don't match a reserved keyword
         // the identifier is user-defined
@@ -159,7 +225,8 @@ class Scanner {
             while (isDigit(peek()))
                 advance();
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        // Integral literals become Longs (see LoxNumbers)
+        addToken(NUMBER, LoxNumbers.of(Double.parseDouble(text(start, current))));
     }
 
     private void string() {
@@ -171,7 +238,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
@@ -179,7 +246,7 @@ class Scanner {
         advance();
 
         // Trim the quotes from the value
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(STRING, value);
     }
 
@@ -209,7 +276,7 @@ class Scanner {
     private char peekNext() {
         // Now there are two characters of lookahead
         // Specifically required for parsing decimal numbers
-        if (current + 1 >= source.length())
+        if (current + 1 >= source.length() && !fill(current + 1))
             return '\0';
         return source.charAt(current + 1);
     }
@@ -233,7 +300,7 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = text(start, current);
+        sink.accept(new Token(type, text, literal, line));
     }
 }
@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+// A scanned and parsed program, ready to be executed by any number of
+// contexts. Nothing reachable from a Script is modified after compilation
+// (the interpreter only reads the AST), and every field is final, so a
+// Script can be handed between threads without further synchronization.
+public final class Script {
+
+    final List<Stmt> statements;
+    // The same statements as parsed and resolved, before the Optimizer
+    // rewrote them; this is what ScriptFile stores
+    final List<Stmt> parsed;
+    private final Diagnostics diagnostics;
+    final int tokenCount;
+    // Slots needed by locals of top-level blocks (see Resolver) and by
+    // the Optimizer's temporaries
+    final int frameSize;
+
+    Script(List<Stmt> statements, Diagnostics diagnostics, int tokenCount, int frameSize) {
+        this(statements, statements, diagnostics, tokenCount, frameSize);
+    }
+
+    Script(List<Stmt> statements, List<Stmt> parsed, Diagnostics diagnostics,
+            int tokenCount, int frameSize) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.parsed = Collections.unmodifiableList(parsed);
+        this.diagnostics = diagnostics;
+        this.tokenCount = tokenCount;
+        this.frameSize = frameSize;
+    }
+
+    public boolean hasErrors() {
+        return diagnostics.hasErrors();
+    }
+
+    // What compiling found (never modified once the script is built)
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+}
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+// Keeps recently compiled Scripts keyed by a hash of their source, so
+// running the same source again skips scanning and parsing entirely.
+//
+// Eviction is least-recently-used once more than `maxEntries` scripts are
+// cached. All access goes through one lock; the critical section is a hash
+// map lookup, and compilation on a miss happens outside of it. Two threads
+// missing on the same source at once will both compile it, and the second
+// result simply replaces the first.
+public class ScriptCache {
+
+    private final int maxEntries;
+    private final Map<String, Script> scripts;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ScriptCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one script.");
+        }
+        this.maxEntries = maxEntries;
+        // accessOrder = true turns the map into an LRU list
+        this.scripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+                if (size() <= ScriptCache.this.maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    Script get(String source, Function<String, Script> compiler) {
+        return get(SourceHash.of(source), source, compiler);
+    }
+
+    // For a caller that already has the source's hash (SourceHash.of)
+    Script get(String key, String source, Function<String, Script> compiler) {
+        synchronized (this) {
+            Script script = scripts.get(key);
+            if (script != null) {
+                hits++;
+                return script;
+            }
+            misses++;
+        }
+
+        Script script = compiler.apply(source);
+        synchronized (this) {
+            scripts.put(key, script);
+        }
+        return script;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return scripts.size();
+    }
+
+    public synchronized void clear() {
+        scripts.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ScriptCache[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+            scripts.size(), maxEntries, hits, misses, evictions);
+    }
+}
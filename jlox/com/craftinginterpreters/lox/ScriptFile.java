@@ -0,0 +1,713 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// The precompiled ".loxc" format, so runFile can skip scanning and parsing
+// when the script hasn't changed since the last run.
+//
+// Layout (all integers big-endian):
+//   magic      "LOXC"
+//   u16        format version
+//   u8[32]     SHA-256 of the source text the program was parsed from
+//   constants  u32 count, then per entry a tag byte ('S' string, 'D' double,
+//              'L' long) and the value (u32 length + UTF-8 bytes, an IEEE
+//              double or a u64)
+//   tokens     u32 count, then per token: u8 type, lexeme constant,
+//              literal constant + 1 (0 for none)
+//   lines      one line per token, delta encoded
+//   nodes      u32 statement count, then the statements in pre-order: a
+//              one byte tag per node followed by its token indexes,
+//              literal, list lengths and children. A node the Parser
+//              interned (see Expr.Interner) is written out the first time
+//              it's reached; after that it's a SHARED tag and the varint
+//              index of that node among the shareable ones, numbered in
+//              the order they were finished (post-order)
+//   u32        CRC32 of everything above
+// Indexes, list lengths and line deltas are varints, so small programs
+// (and the common small indexes of big ones) take a byte per number.
+//
+// Anything unexpected (old version, other source, truncated or corrupt
+// file) makes read() return null and the caller falls back to source.
+// Bump VERSION whenever the node tags, the AST or TokenType change.
+//
+// Decoding gives back the same sharing the Parser made, node for node: it
+// doesn't intern again, which would also merge nodes the Parser kept apart.
+//
+// What the Resolver works out isn't stored; it runs again on the decoded
+// statements, which is cheap next to the scan and parse a file saves.
+// The same goes for the Optimizer: the file holds the statements as
+// parsed (Script.parsed), so the Optimizer's nodes never appear in it.
+final class ScriptFile {
+
+    static final int VERSION = 10;
+    private static final byte[] MAGIC = { 'L', 'O', 'X', 'C' };
+
+    // Node tags
+    private static final int NULL = 0;
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int GROUPING = 3;
+    private static final int LITERAL = 4;
+    private static final int LOGICAL = 5;
+    private static final int VARIABLE = 6;
+    private static final int UNARY = 7;
+    private static final int CALL = 8;
+    private static final int SPAWN = 9;
+    private static final int INDEX = 10;
+    private static final int SET_INDEX = 11;
+    private static final int LENGTH = 12;
+    private static final int SHARED = 13;
+    private static final int BLOCK = 20;
+    private static final int EXPRESSION = 21;
+    private static final int IF = 22;
+    private static final int VAR = 23;
+    private static final int PRINT = 24;
+    private static final int WHILE = 25;
+    private static final int FUNCTION = 26;
+    private static final int RETURN = 27;
+
+    // Literal tags
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+
+    private ScriptFile() {}
+
+    // The node types the Parser may intern, so one instance can turn up
+    // in several places
+    private static boolean shareable(Expr expr) {
+        return expr instanceof Expr.Literal || expr instanceof Expr.Grouping
+            || expr instanceof Expr.Unary || expr instanceof Expr.Binary;
+    }
+
+    // "script.lox" is cached as "script.loxc", anything else gets ".loxc" appended
+    static Path cachePathFor(Path source) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return source.resolveSibling(name + ".loxc");
+    }
+
+    // Writes through a temporary file so a concurrent reader never sees half a cache
+    static void write(Path path, Script script, byte[] sourceHash) throws IOException {
+        byte[] bytes = encode(script, sourceHash);
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(),
+            path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static Script read(Path path, byte[] sourceHash) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return decode(buffer, sourceHash);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException | ClassCastException
+                | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    static byte[] encode(Script script, byte[] sourceHash) {
+        Encoder encoder = new Encoder();
+        for (Stmt statement : script.parsed) {
+            encoder.stmt(statement);
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeShort(VERSION);
+            out.write(sourceHash);
+
+            out.writeInt(encoder.constants.size());
+            for (Object constant : encoder.constants) {
+                if (constant instanceof String) {
+                    byte[] utf8 = ((String)constant).getBytes(StandardCharsets.UTF_8);
+                    out.writeByte('S');
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                } else if (constant instanceof Long) {
+                    out.writeByte('L');
+                    out.writeLong((Long)constant);
+                } else {
+                    out.writeByte('D');
+                    out.writeDouble((Double)constant);
+                }
+            }
+
+            out.writeInt(encoder.tokens.size());
+            for (Token token : encoder.tokens) {
+                out.writeByte(token.type.ordinal());
+                writeVarint(out, encoder.constant(token.lexeme));
+                writeVarint(out, token.literal == null ? 0 : encoder.constant(token.literal) + 1);
+            }
+            int previousLine = 0;
+            for (Token token : encoder.tokens) {
+                // Zig-zag so small negative deltas stay small too
+                int delta = token.line - previousLine;
+                writeVarint(out, (delta << 1) ^ (delta >> 31));
+                previousLine = token.line;
+            }
+
+            out.writeInt(script.parsed.size());
+            out.write(encoder.nodes.toByteArray());
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int)crc.getValue());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to a byte array can't fail
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Script decode(ByteBuffer in, byte[] sourceHash) {
+        if (in.remaining() < MAGIC.length + 2 + sourceHash.length + 4) return null;
+
+        // Check the trailer first so nothing below ever sees a corrupt file
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit(in.limit() - 4);
+        crc.update(body);
+        if ((int)crc.getValue() != in.getInt(in.limit() - 4)) return null;
+
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) return null;
+        if (in.getShort() != VERSION) return null;
+        byte[] hash = new byte[sourceHash.length];
+        in.get(hash);
+        if (!Arrays.equals(hash, sourceHash)) return null;
+
+        Object[] constants = new Object[in.getInt()];
+        for (int i = 0; i < constants.length; i++) {
+            int tag = in.get();
+            if (tag == 'S') {
+                byte[] utf8 = new byte[in.getInt()];
+                in.get(utf8);
+                constants[i] = new String(utf8, StandardCharsets.UTF_8);
+            } else if (tag == 'D') {
+                constants[i] = in.getDouble();
+            } else if (tag == 'L') {
+                constants[i] = in.getLong();
+            } else {
+                return null;
+            }
+        }
+
+        TokenType[] types = TokenType.values();
+        int tokenCount = in.getInt();
+        int[] tokenTypes = new int[tokenCount];
+        int[] lexemes = new int[tokenCount];
+        int[] literals = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            tokenTypes[i] = in.get() & 0xff;
+            lexemes[i] = readVarint(in);
+            literals[i] = readVarint(in) - 1;
+        }
+        Token[] tokens = new Token[tokenCount];
+        int line = 0;
+        for (int i = 0; i < tokenCount; i++) {
+            int bits = readVarint(in);
+            line += (bits >>> 1) ^ -(bits & 1);
+            Object literal = literals[i] < 0 ? null : constants[literals[i]];
+            tokens[i] = new Token(types[tokenTypes[i]],
+                (String)constants[lexemes[i]], literal, line);
+        }
+
+        Decoder decoder = new Decoder(in, constants, tokens);
+        int count = in.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(decoder.stmt());
+        }
+        // Only scripts without errors are written, so this can't report any
+        ErrorReporter reporter = (kind, errorLine, token, message) -> {
+            throw new IllegalArgumentException(message);
+        };
+        int frameSize = new Resolver(reporter).resolve(statements);
+        return new Script(statements, new Diagnostics(), tokenCount, frameSize);
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int bits = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            bits |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return bits;
+    }
+
+    private static class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final List<Object> constants = new ArrayList<>();
+        final Map<Object, Integer> constantIndexes = new HashMap<>();
+        final List<Token> tokens = new ArrayList<>();
+        final Map<Token, Integer> tokenIndexes = new IdentityHashMap<>();
+        final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        // Shareable nodes written so far, by index
+        final Map<Expr, Integer> shared = new IdentityHashMap<>();
+
+        int constant(Object value) {
+            Integer index = constantIndexes.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        private void tag(int tag) {
+            nodes.write(tag);
+        }
+
+        private void integer(int value) {
+            try {
+                writeVarint(nodes, value);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void token(Token token) {
+            Integer index = tokenIndexes.get(token);
+            if (index == null) {
+                index = tokens.size();
+                tokens.add(token);
+                tokenIndexes.put(token, index);
+                // The constant pool is written before the tokens,
+                // so everything they refer to has to be in it already
+                constant(token.lexeme);
+                if (token.literal != null) constant(token.literal);
+            }
+            integer(index);
+        }
+
+        void expr(Expr expr) {
+            if (expr == null) {
+                tag(NULL);
+                return;
+            }
+            Integer index = shared.get(expr);
+            if (index != null) {
+                tag(SHARED);
+                integer(index);
+                return;
+            }
+            expr.accept(this);
+            if (shareable(expr)) shared.put(expr, shared.size());
+        }
+
+        void stmt(Stmt stmt) {
+            if (stmt == null) {
+                tag(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            token(expr.operator);
+            integer(expr.site);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            tag(INDEX);
+            token(expr.bracket);
+            expr(expr.object);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr) {
+            tag(SET_INDEX);
+            token(expr.bracket);
+            expr(expr.object);
+            expr(expr.index);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLengthExpr(Expr.Length expr) {
+            tag(LENGTH);
+            token(expr.name);
+            expr(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitSpawnExpr(Expr.Spawn expr) {
+            tag(SPAWN);
+            token(expr.keyword);
+            expr(expr.call);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            token(expr.paren);
+            expr(expr.callee);
+            integer(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                expr(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                tag(NIL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean)value ? TRUE : FALSE);
+            } else if (LoxNumbers.isNumber(value)) {
+                tag(NUMBER);
+                integer(constant(value));
+            } else {
+                tag(STRING);
+                integer(constant(value));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            token(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            token(stmt.brace);
+            integer(stmt.statements.size());
+            for (Stmt statement : stmt.statements) {
+                stmt(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            integer(stmt.params.size());
+            for (Token param : stmt.params) {
+                token(param);
+            }
+            integer(stmt.body.size());
+            for (Stmt statement : stmt.body) {
+                stmt(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            token(stmt.keyword);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            token(stmt.keyword);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            token(stmt.keyword);
+            integer(stmt.site);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitHoistStmt(Stmt.Hoist stmt) {
+            throw new IllegalStateException("Optimized statements aren't stored.");
+        }
+
+        @Override
+        public Void visitCountedStmt(Stmt.Counted stmt) {
+            throw new IllegalStateException("Optimized statements aren't stored.");
+        }
+
+        @Override
+        public Void visitHoistedExpr(Expr.Hoisted expr) {
+            throw new IllegalStateException("Optimized statements aren't stored.");
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer in;
+        private final Object[] constants;
+        private final Token[] tokens;
+        // Shareable nodes decoded so far, by index (see Encoder.shared)
+        private final List<Expr> shared = new ArrayList<>();
+
+        Decoder(ByteBuffer in, Object[] constants, Token[] tokens) {
+            this.in = in;
+            this.constants = constants;
+            this.tokens = tokens;
+        }
+
+        private Token token() {
+            return tokens[readVarint(in)];
+        }
+
+        Expr expr() {
+            int tag = in.get();
+            if (tag == SHARED) return shared.get(readVarint(in));
+            Expr expr = node(tag);
+            if (shareable(expr)) shared.add(expr);
+            return expr;
+        }
+
+        private Expr node(int tag) {
+            switch (tag) {
+                case NULL: return null;
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expr());
+                }
+                case BINARY: {
+                    Token operator = token();
+                    int site = readVarint(in);
+                    Expr left = expr();
+                    return new Expr.Binary(left, operator, expr(), site);
+                }
+                case CALL: {
+                    Token paren = token();
+                    Expr callee = expr();
+                    int count = readVarint(in);
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(expr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case INDEX: {
+                    Token bracket = token();
+                    Expr object = expr();
+                    return new Expr.Index(object, bracket, expr());
+                }
+                case SET_INDEX: {
+                    Token bracket = token();
+                    Expr object = expr();
+                    Expr index = expr();
+                    return new Expr.SetIndex(object, bracket, index, expr());
+                }
+                case LENGTH: {
+                    Token name = token();
+                    return new Expr.Length(expr(), name);
+                }
+                case SPAWN: {
+                    Token keyword = token();
+                    return new Expr.Spawn(keyword, expr());
+                }
+                case GROUPING: return new Expr.Grouping(expr());
+                case LITERAL: return new Expr.Literal(literal());
+                case LOGICAL: {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case VARIABLE: return new Expr.Variable(token());
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                default:
+                    throw new IllegalArgumentException("Bad expression tag " + tag);
+            }
+        }
+
+        private Object literal() {
+            int tag = in.get();
+            switch (tag) {
+                case NIL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case NUMBER:
+                case STRING:
+                    return constants[readVarint(in)];
+                default:
+                    throw new IllegalArgumentException("Bad literal tag " + tag);
+            }
+        }
+
+        Stmt stmt() {
+            int tag = in.get();
+            switch (tag) {
+                case NULL: return null;
+                case BLOCK: {
+                    Token brace = token();
+                    int count = readVarint(in);
+                    List<Stmt> statements = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        statements.add(stmt());
+                    }
+                    return new Stmt.Block(brace, statements);
+                }
+                case EXPRESSION: return new Stmt.Expression(expr());
+                case FUNCTION: {
+                    Token name = token();
+                    int paramCount = readVarint(in);
+                    List<Token> params = new ArrayList<>(paramCount);
+                    for (int i = 0; i < paramCount; i++) {
+                        params.add(token());
+                    }
+                    int count = readVarint(in);
+                    List<Stmt> body = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        body.add(stmt());
+                    }
+                    return new Stmt.Function(name, params, body);
+                }
+                case IF: {
+                    Token keyword = token();
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(keyword, condition, thenBranch, stmt());
+                }
+                case VAR: {
+                    Token name = token();
+                    return new Stmt.Var(name, expr());
+                }
+                case PRINT: {
+                    Token keyword = token();
+                    return new Stmt.Print(keyword, expr());
+                }
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expr());
+                }
+                case WHILE: {
+                    Token keyword = token();
+                    int site = readVarint(in);
+                    Expr condition = expr();
+                    return new Stmt.While(keyword, condition, stmt(), site);
+                }
+                default:
+                    throw new IllegalArgumentException("Bad statement tag " + tag);
+            }
+        }
+    }
+}
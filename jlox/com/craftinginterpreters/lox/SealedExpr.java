@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+sealed interface SealedExpr permits
+        SealedExpr.Assign,
+        SealedExpr.Binary,
+        SealedExpr.Call,
+        SealedExpr.Index,
+        SealedExpr.SetIndex,
+        SealedExpr.Length,
+        SealedExpr.Grouping,
+        SealedExpr.Literal,
+        SealedExpr.Logical,
+        SealedExpr.Variable,
+        SealedExpr.Unary,
+        SealedExpr.Spawn,
+        SealedExpr.Hoisted {
+    enum Kind {
+        ASSIGN, BINARY, CALL, INDEX, SETINDEX, LENGTH, GROUPING, LITERAL, LOGICAL, VARIABLE, UNARY, SPAWN, HOISTED
+    }
+
+    Kind kind();
+
+    record Assign(Token name, SealedExpr value, Resolver.Access access, int slot) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.ASSIGN;
+        }
+    }
+
+    record Binary(SealedExpr left, Token operator, SealedExpr right, int site) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.BINARY;
+        }
+    }
+
+    record Call(SealedExpr callee, Token paren, List<SealedExpr> arguments) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.CALL;
+        }
+    }
+
+    record Index(SealedExpr object, Token bracket, SealedExpr index) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.INDEX;
+        }
+    }
+
+    record SetIndex(SealedExpr object, Token bracket, SealedExpr index, SealedExpr value) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.SETINDEX;
+        }
+    }
+
+    record Length(SealedExpr object, Token name) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.LENGTH;
+        }
+    }
+
+    record Grouping(SealedExpr expression) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.GROUPING;
+        }
+    }
+
+    record Literal(Object value) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.LITERAL;
+        }
+    }
+
+    record Logical(SealedExpr left, Token operator, SealedExpr right) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.LOGICAL;
+        }
+    }
+
+    record Variable(Token name, Resolver.Access access, int slot) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.VARIABLE;
+        }
+    }
+
+    record Unary(Token operator, SealedExpr right) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.UNARY;
+        }
+    }
+
+    record Spawn(Token keyword, SealedExpr call) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.SPAWN;
+        }
+    }
+
+    record Hoisted(SealedExpr expression, int slot) implements SealedExpr {
+        @Override
+        public Kind kind() {
+            return Kind.HOISTED;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Converts the parser's class-based AST into the sealed record AST
+// (SealedExpr/SealedStmt) that SwitchInterpreter runs. The statements must
+// have been resolved already; the records carry the Resolver's results.
+class SealedLowering implements Expr.Visitor<SealedExpr>, Stmt.Visitor<SealedStmt> {
+
+    static List<SealedStmt> lower(List<Stmt> statements) {
+        SealedLowering lowering = new SealedLowering();
+        List<SealedStmt> lowered = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            lowered.add(lowering.lower(statement));
+        }
+        return lowered;
+    }
+
+    private SealedStmt lower(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private SealedExpr lower(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<SealedStmt> lowerAll(List<Stmt> statements) {
+        List<SealedStmt> lowered = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            lowered.add(lower(statement));
+        }
+        return lowered;
+    }
+
+    @Override
+    public SealedStmt visitBlockStmt(Stmt.Block stmt) {
+        return new SealedStmt.Block(stmt.brace, lowerAll(stmt.statements));
+    }
+
+    @Override
+    public SealedStmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new SealedStmt.Expression(lower(stmt.expression));
+    }
+
+    @Override
+    public SealedStmt visitFunctionStmt(Stmt.Function stmt) {
+        return new SealedStmt.Function(stmt.name, stmt.params, lowerAll(stmt.body),
+            stmt.access, stmt.slot, stmt.frameSize, stmt.captures, stmt.cellParams);
+    }
+
+    @Override
+    public SealedStmt visitIfStmt(Stmt.If stmt) {
+        return new SealedStmt.If(stmt.keyword, lower(stmt.condition),
+            lower(stmt.thenBranch), lower(stmt.elseBranch));
+    }
+
+    @Override
+    public SealedStmt visitVarStmt(Stmt.Var stmt) {
+        return new SealedStmt.Var(stmt.name, lower(stmt.initializer),
+            stmt.access, stmt.slot);
+    }
+
+    @Override
+    public SealedStmt visitPrintStmt(Stmt.Print stmt) {
+        return new SealedStmt.Print(stmt.keyword, lower(stmt.expression));
+    }
+
+    @Override
+    public SealedStmt visitReturnStmt(Stmt.Return stmt) {
+        return new SealedStmt.Return(stmt.keyword, lower(stmt.value));
+    }
+
+    @Override
+    public SealedStmt visitWhileStmt(Stmt.While stmt) {
+        return new SealedStmt.While(stmt.keyword, lower(stmt.condition), lower(stmt.body),
+            stmt.site);
+    }
+
+    @Override
+    public SealedStmt visitCountedStmt(Stmt.Counted stmt) {
+        return new SealedStmt.Counted((SealedStmt.While)lower(stmt.loop), lower(stmt.body),
+            stmt.slot, stmt.step, stmt.readsCounter);
+    }
+
+    @Override
+    public SealedStmt visitHoistStmt(Stmt.Hoist stmt) {
+        List<SealedExpr> hoisted = new ArrayList<>(stmt.hoisted.size());
+        for (Expr expr : stmt.hoisted) {
+            hoisted.add(lower(expr));
+        }
+        return new SealedStmt.Hoist(stmt.keyword, hoisted);
+    }
+
+    @Override
+    public SealedExpr visitAssignExpr(Expr.Assign expr) {
+        return new SealedExpr.Assign(expr.name, lower(expr.value), expr.access, expr.slot);
+    }
+
+    @Override
+    public SealedExpr visitBinaryExpr(Expr.Binary expr) {
+        return new SealedExpr.Binary(lower(expr.left), expr.operator, lower(expr.right),
+            expr.site);
+    }
+
+    @Override
+    public SealedExpr visitCallExpr(Expr.Call expr) {
+        List<SealedExpr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            arguments.add(lower(argument));
+        }
+        return new SealedExpr.Call(lower(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public SealedExpr visitIndexExpr(Expr.Index expr) {
+        return new SealedExpr.Index(lower(expr.object), expr.bracket, lower(expr.index));
+    }
+
+    @Override
+    public SealedExpr visitSetIndexExpr(Expr.SetIndex expr) {
+        return new SealedExpr.SetIndex(lower(expr.object), expr.bracket,
+            lower(expr.index), lower(expr.value));
+    }
+
+    @Override
+    public SealedExpr visitLengthExpr(Expr.Length expr) {
+        return new SealedExpr.Length(lower(expr.object), expr.name);
+    }
+
+    @Override
+    public SealedExpr visitSpawnExpr(Expr.Spawn expr) {
+        return new SealedExpr.Spawn(expr.keyword, lower(expr.call));
+    }
+
+    @Override
+    public SealedExpr visitGroupingExpr(Expr.Grouping expr) {
+        return new SealedExpr.Grouping(lower(expr.expression));
+    }
+
+    @Override
+    public SealedExpr visitLiteralExpr(Expr.Literal expr) {
+        return new SealedExpr.Literal(expr.value);
+    }
+
+    @Override
+    public SealedExpr visitLogicalExpr(Expr.Logical expr) {
+        return new SealedExpr.Logical(lower(expr.left), expr.operator, lower(expr.right));
+    }
+
+    @Override
+    public SealedExpr visitVariableExpr(Expr.Variable expr) {
+        return new SealedExpr.Variable(expr.name, expr.access, expr.slot);
+    }
+
+    @Override
+    public SealedExpr visitUnaryExpr(Expr.Unary expr) {
+        return new SealedExpr.Unary(expr.operator, lower(expr.right));
+    }
+
+    @Override
+    public SealedExpr visitHoistedExpr(Expr.Hoisted expr) {
+        return new SealedExpr.Hoisted(lower(expr.expression), expr.slot);
+    }
+}
@@ -0,0 +1,91 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+sealed interface SealedStmt permits
+        SealedStmt.Block,
+        SealedStmt.Expression,
+        SealedStmt.Function,
+        SealedStmt.If,
+        SealedStmt.Var,
+        SealedStmt.Print,
+        SealedStmt.Return,
+        SealedStmt.While,
+        SealedStmt.Hoist,
+        SealedStmt.Counted {
+    enum Kind {
+        BLOCK, EXPRESSION, FUNCTION, IF, VAR, PRINT, RETURN, WHILE, HOIST, COUNTED
+    }
+
+    Kind kind();
+
+    record Block(Token brace, List<SealedStmt> statements) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.BLOCK;
+        }
+    }
+
+    record Expression(SealedExpr expression) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.EXPRESSION;
+        }
+    }
+
+    record Function(Token name, List<Token> params, List<SealedStmt> body, Resolver.Access access, int slot, int frameSize, int[] captures, boolean[] cellParams) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.FUNCTION;
+        }
+    }
+
+    record If(Token keyword, SealedExpr condition, SealedStmt thenBranch, SealedStmt elseBranch) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.IF;
+        }
+    }
+
+    record Var(Token name, SealedExpr initializer, Resolver.Access access, int slot) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.VAR;
+        }
+    }
+
+    record Print(Token keyword, SealedExpr expression) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.PRINT;
+        }
+    }
+
+    record Return(Token keyword, SealedExpr value) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.RETURN;
+        }
+    }
+
+    record While(Token keyword, SealedExpr condition, SealedStmt body, int site) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.WHILE;
+        }
+    }
+
+    record Hoist(Token keyword, List<SealedExpr> hoisted) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.HOIST;
+        }
+    }
+
+    record Counted(SealedStmt.While loop, SealedStmt body, int slot, long step, boolean readsCounter) implements SealedStmt {
+        @Override
+        public Kind kind() {
+            return Kind.COUNTED;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// The ".loxs" format: the globals a prelude script left behind, so a
+// context can start where the prelude finished without running it again
+// (see LoxContext.runPrelude).
+//
+// Layout (all integers big-endian, varints as in ScriptFile):
+//   magic      "LOXS"
+//   u16        format version
+//   u8[32]     SHA-256 of the prelude's source text
+//   strings    varint count, then per string a varint length and UTF-8
+//   arrays     varint count, then per array a varint length and its
+//              elements as IEEE doubles
+//   globals    varint count, then per global its name (a string index),
+//              a tag byte and the value: nothing for nil and booleans, a
+//              u64 or an IEEE double for numbers, a string or array index,
+//              or for a function the index of its declaration among the
+//              prelude's top-level ones followed by its name
+//   u32        CRC32 of everything above
+//
+// Arrays keep their identity: two globals holding one array still hold
+// one array after a restore. A function is stored as a reference to its
+// declaration, so restoring needs the prelude's statements (compiled
+// again, or read from its .loxc) but never runs any of them. Only
+// functions declared at the prelude's top level can be stored that way,
+// since those capture nothing. Natives are stored by name and looked up in
+// the engine's registry, and the ones still under their own name aren't
+// stored at all, as every context starts with them. A global holding
+// anything else (a closure, a channel, a task) can't be snapshotted.
+//
+// As with ScriptFile, a snapshot of other source, of another version, or
+// one that's truncated or corrupt makes read() return false, and the
+// caller runs the prelude instead.
+final class Snapshot {
+
+    static final int VERSION = 1;
+    private static final byte[] MAGIC = { 'L', 'O', 'X', 'S' };
+
+    // Value tags
+    private static final int NIL = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int STRING = 5;
+    private static final int ARRAY = 6;
+    private static final int FUNCTION = 7;
+    private static final int NATIVE = 8;
+
+    private Snapshot() {}
+
+    // "prelude.lox" is snapshotted as "prelude.loxs"
+    static Path pathFor(Path prelude) {
+        String name = prelude.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return prelude.resolveSibling(name + ".loxs");
+    }
+
+    // Writes through a temporary file, like ScriptFile.write. Throws
+    // IllegalArgumentException, before writing anything, for a global
+    // that can't be snapshotted.
+    static void write(Path path, Interpreter interpreter, Script prelude,
+            Natives natives, byte[] sourceHash) throws IOException {
+        byte[] bytes = encode(interpreter.copyGlobals(), prelude, natives, sourceHash);
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(),
+            path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Restores the snapshot into `interpreter`'s globals, all of them or
+    // (returning false) none
+    static boolean read(Path path, Interpreter interpreter, Script prelude,
+            Natives natives, byte[] sourceHash) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return decode(buffer, interpreter, prelude, natives, sourceHash);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException | NegativeArraySizeException e) {
+            return false;
+        }
+    }
+
+    // The top-level function declarations, in order; the same source gives
+    // the same list whether it was optimized or not
+    private static List<Stmt.Function> functions(Script prelude) {
+        List<Stmt.Function> functions = new ArrayList<>();
+        for (Stmt statement : prelude.statements) {
+            if (statement instanceof Stmt.Function) functions.add((Stmt.Function)statement);
+        }
+        return functions;
+    }
+
+    static byte[] encode(Map<String, Object> globals, Script prelude, Natives natives,
+            byte[] sourceHash) {
+        List<Stmt.Function> functions = functions(prelude);
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<LoxArray> arrays = new ArrayList<>();
+        Map<LoxArray, Integer> arrayIndexes = new IdentityHashMap<>();
+
+        try {
+            ByteArrayOutputStream values = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(values);
+            int count = 0;
+            for (Map.Entry<String, Object> global : globals.entrySet()) {
+                String name = global.getKey();
+                Object value = global.getValue();
+                if (value instanceof NativeFunction && natives.get(name) == value) continue;
+                count++;
+
+                ScriptFile.writeVarint(out, index(name, strings, stringIndexes));
+                if (value == null) {
+                    out.writeByte(NIL);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((Boolean)value ? TRUE : FALSE);
+                } else if (value instanceof Long) {
+                    out.writeByte(LONG);
+                    out.writeLong((Long)value);
+                } else if (value instanceof Double) {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble((Double)value);
+                } else if (value instanceof String) {
+                    out.writeByte(STRING);
+                    ScriptFile.writeVarint(out, index((String)value, strings, stringIndexes));
+                } else if (value instanceof LoxArray) {
+                    out.writeByte(ARRAY);
+                    ScriptFile.writeVarint(out, index((LoxArray)value, arrays, arrayIndexes));
+                } else if (value instanceof LoxFunction) {
+                    Stmt.Function declaration = ((LoxFunction)value).declaration;
+                    int at = indexOf(functions, declaration);
+                    if (at < 0) {
+                        throw new IllegalArgumentException("global '" + name + "' holds " +
+                            value + ", which isn't declared at the prelude's top level.");
+                    }
+                    out.writeByte(FUNCTION);
+                    ScriptFile.writeVarint(out, at);
+                    ScriptFile.writeVarint(out,
+                        index(declaration.name.lexeme, strings, stringIndexes));
+                } else if (value instanceof NativeFunction) {
+                    out.writeByte(NATIVE);
+                    ScriptFile.writeVarint(out,
+                        index(((NativeFunction)value).name, strings, stringIndexes));
+                } else {
+                    throw new IllegalArgumentException("global '" + name +
+                        "' holds " + Interpreter.stringify(value) + ".");
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream file = new DataOutputStream(bytes);
+            file.write(MAGIC);
+            file.writeShort(VERSION);
+            file.write(sourceHash);
+            ScriptFile.writeVarint(file, strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                ScriptFile.writeVarint(file, utf8.length);
+                file.write(utf8);
+            }
+            ScriptFile.writeVarint(file, arrays.size());
+            for (LoxArray array : arrays) {
+                ScriptFile.writeVarint(file, array.values.length);
+                for (double element : array.values) {
+                    file.writeDouble(element);
+                }
+            }
+            ScriptFile.writeVarint(file, count);
+            out.flush();
+            values.writeTo(file);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            file.writeInt((int)crc.getValue());
+            file.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to a byte array can't fail
+            throw new AssertionError(e);
+        }
+    }
+
+    private static <T> int index(T value, List<T> table, Map<T, Integer> indexes) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = table.size();
+            table.add(value);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+    private static int indexOf(List<Stmt.Function> functions, Stmt.Function declaration) {
+        for (int i = 0; i < functions.size(); i++) {
+            if (functions.get(i) == declaration) return i;
+        }
+        return -1;
+    }
+
+    private static boolean decode(ByteBuffer in, Interpreter interpreter, Script prelude,
+            Natives natives, byte[] sourceHash) {
+        if (in.remaining() < MAGIC.length + 2 + sourceHash.length + 4) return false;
+
+        // Check the trailer first so nothing below ever sees a corrupt file
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit(in.limit() - 4);
+        crc.update(body);
+        if ((int)crc.getValue() != in.getInt(in.limit() - 4)) return false;
+
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) return false;
+        if (in.getShort() != VERSION) return false;
+        byte[] hash = new byte[sourceHash.length];
+        in.get(hash);
+        if (!Arrays.equals(hash, sourceHash)) return false;
+
+        // What the restored globals hold, as LoxMemory counts it
+        long bytes = 0;
+
+        String[] strings = new String[length(in, 1)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] utf8 = new byte[length(in, 1)];
+            in.get(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        LoxArray[] arrays = new LoxArray[length(in, 1)];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new LoxArray(length(in, 8));
+            in.asDoubleBuffer().get(arrays[i].values);
+            in.position(in.position() + arrays[i].values.length * 8);
+            bytes += LoxMemory.sizeOf(arrays[i]);
+        }
+
+        List<Stmt.Function> functions = functions(prelude);
+        LoxFunction[] restored = new LoxFunction[functions.size()];
+        Map<String, Object> globals = new LinkedHashMap<>();
+        int count = length(in, 2);
+        for (int i = 0; i < count; i++) {
+            String name = strings[ScriptFile.readVarint(in)];
+            Object value;
+            switch (in.get()) {
+                case NIL: value = null; break;
+                case FALSE: value = false; break;
+                case TRUE: value = true; break;
+                case LONG: value = in.getLong(); break;
+                case DOUBLE: value = in.getDouble(); break;
+                case STRING: value = strings[ScriptFile.readVarint(in)]; break;
+                case ARRAY: value = arrays[ScriptFile.readVarint(in)]; break;
+                case FUNCTION: {
+                    int at = ScriptFile.readVarint(in);
+                    Stmt.Function declaration = functions.get(at);
+                    if (!declaration.name.lexeme.equals(strings[ScriptFile.readVarint(in)])) {
+                        return false;
+                    }
+                    // One function per declaration, so `f == g` holds
+                    // after a restore if it held before
+                    if (restored[at] == null) {
+                        restored[at] = interpreter.topLevelFunction(declaration);
+                        bytes += LoxMemory.function(0);
+                    }
+                    value = restored[at];
+                    break;
+                }
+                case NATIVE:
+                    value = natives.get(strings[ScriptFile.readVarint(in)]);
+                    // A native the engine no longer has
+                    if (value == null) return false;
+                    break;
+                default:
+                    return false;
+            }
+            // Arrays and functions were counted once, above
+            bytes += LoxMemory.GLOBAL + (value instanceof LoxArray ? 0 : LoxMemory.sizeOf(value));
+            globals.put(name, value);
+        }
+        if (in.remaining() != 4) return false;
+
+        interpreter.restoreGlobals(globals, bytes);
+        return true;
+    }
+
+    // A count read from the file, each of whose entries takes at least
+    // `minimum` bytes, so a corrupt count can't allocate more than is there
+    private static int length(ByteBuffer in, int minimum) {
+        int length = ScriptFile.readVarint(in);
+        if (length < 0 || length > in.remaining() / minimum) {
+            throw new IllegalArgumentException("Bad length " + length);
+        }
+        return length;
+    }
+}
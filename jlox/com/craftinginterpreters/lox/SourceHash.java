@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Content hash of a script's source text, used wherever we need to know
+// "is this the same program?" without keeping the source around.
+final class SourceHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private SourceHash() {}
+
+    static byte[] digest(String source) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return sha.digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to ship SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    static String of(String source) {
+        return hex(digest(source));
+    }
+
+    // The same hash as of(), from a digest() already taken
+    static String hex(byte[] digest) {
+        char[] text = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            text[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            text[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(text);
+    }
+}
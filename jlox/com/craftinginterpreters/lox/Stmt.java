@@ -6,13 +6,18 @@ abstract class Stmt {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
         R visitVarStmt(Var stmt);
         R visitPrintStmt(Print stmt);
+        R visitReturnStmt(Return stmt);
         R visitWhileStmt(While stmt);
+        R visitHoistStmt(Hoist stmt);
+        R visitCountedStmt(Counted stmt);
     }
     static class Block extends Stmt {
-        Block(List<Stmt> statements){
+        Block(Token brace, List<Stmt> statements){
+            this.brace = brace;
             this.statements = statements;
         }
 
@@ -20,6 +25,7 @@ abstract class Stmt {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
+    final Token brace;
     final List<Stmt> statements;
     }
     static class Expression extends Stmt {
@@ -33,8 +39,30 @@ abstract class Stmt {
         }
     final Expr expression;
     }
+    static class Function extends Stmt {
+        Function(Token name, List<Token> params, List<Stmt> body){
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFunctionStmt(this);
+        }
+    final Token name;
+    final List<Token> params;
+    final List<Stmt> body;
+    // Set by the Resolver
+    Resolver.Access access;
+    int slot;
+    int frameSize;
+    int[] captures;
+    boolean[] cellParams;
+    }
     static class If extends Stmt {
-        If(Expr condition, Stmt thenBranch, Stmt elseBranch){
+        If(Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch){
+            this.keyword = keyword;
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -44,6 +72,7 @@ abstract class Stmt {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
+    final Token keyword;
     final Expr condition;
     final Stmt thenBranch;
     final Stmt elseBranch;
@@ -60,9 +89,13 @@ abstract class Stmt {
         }
     final Token name;
     final Expr initializer;
+    // Set by the Resolver
+    Resolver.Access access;
+    int slot;
     }
     static class Print extends Stmt {
-        Print(Expr expression){
+        Print(Token keyword, Expr expression){
+            this.keyword = keyword;
             this.expression = expression;
         }
 
@@ -70,20 +103,68 @@ abstract class Stmt {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
+    final Token keyword;
     final Expr expression;
     }
+    static class Return extends Stmt {
+        Return(Token keyword, Expr value){
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitReturnStmt(this);
+        }
+    final Token keyword;
+    final Expr value;
+    }
     static class While extends Stmt {
-        While(Expr condition, Stmt body){
+        While(Token keyword, Expr condition, Stmt body, int site){
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
+            this.site = site;
         }
 
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
+    final Token keyword;
     final Expr condition;
     final Stmt body;
+    final int site;
+    }
+    static class Hoist extends Stmt {
+        Hoist(Token keyword, List<Expr> hoisted){
+            this.keyword = keyword;
+            this.hoisted = hoisted;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitHoistStmt(this);
+        }
+    final Token keyword;
+    final List<Expr> hoisted;
+    }
+    static class Counted extends Stmt {
+        Counted(Stmt.While loop, Stmt body){
+            this.loop = loop;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCountedStmt(this);
+        }
+    final Stmt.While loop;
+    final Stmt body;
+    // Set by the Optimizer
+    int slot;
+    long step;
+    boolean readsCounter;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
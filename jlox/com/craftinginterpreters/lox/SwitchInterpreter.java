@@ -0,0 +1,378 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import static com.craftinginterpreters.lox.Interpreter.callable;
+import static com.craftinginterpreters.lox.Interpreter.isTruthy;
+import static com.craftinginterpreters.lox.Interpreter.stringify;
+
+// Interpreter's tree walk over the sealed record AST, dispatching with a
+// switch on each node's Kind instead of accept(Visitor).
+//
+// The switches are switch *expressions*, so the compiler rejects this file
+// as soon as GenerateAst grows a node type that isn't handled here.
+//
+// It exists only to measure dispatch cost (see DispatchBenchmark), and it
+// isn't an engine: it has no fuel, no heap cap, no profiler or flight
+// recorder hooks, and no tasks (spawn is a runtime error). The context only
+// gives it its output, natives and error reporting. What it does evaluate
+// (operators, natives, call checks) goes through Interpreter's own static
+// helpers, so the two can't disagree on it.
+class SwitchInterpreter {
+
+    private static final Cell[] NO_CAPTURES = new Cell[0];
+
+    private final LoxContext context;
+    private final Environment globals;
+
+    // Frames, captures and returns work exactly as in Interpreter
+    private Object[] frame = new Object[0];
+    private Cell[] captures = NO_CAPTURES;
+    private boolean returning = false;
+    private Object returnValue = null;
+
+    SwitchInterpreter(LoxContext context) {
+        this.context = context;
+        this.globals = new Environment();
+        context.natives().install(globals);
+    }
+
+    // A function declared while running under this interpreter
+    private static final class Function implements LoxCallable {
+        final SealedStmt.Function declaration;
+        final Cell[] closure;
+        final SwitchInterpreter interpreter;
+
+        Function(SealedStmt.Function declaration, Cell[] closure,
+                SwitchInterpreter interpreter) {
+            this.declaration = declaration;
+            this.closure = closure;
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public int arity() {
+            return declaration.params().size();
+        }
+
+        @Override
+        public Object call(Object[] arguments) {
+            Object[] frame = new Object[declaration.frameSize()];
+            System.arraycopy(arguments, 0, frame, 0, arguments.length);
+            return interpreter.invoke(this, frame);
+        }
+
+        @Override
+        public String toString() {
+            return "<fn " + declaration.name().lexeme + ">";
+        }
+    }
+
+    void interpret(List<SealedStmt> statements, int frameSize) {
+        frame = new Object[frameSize];
+        captures = NO_CAPTURES;
+        try {
+            for (SealedStmt statement : statements) {
+                execute(statement);
+            }
+        } catch (RuntimeError error) {
+            context.runtimeError(error);
+        }
+    }
+
+    private Void execute(SealedStmt stmt) {
+        return switch (stmt.kind()) {
+            case BLOCK -> block((SealedStmt.Block)stmt);
+            case COUNTED -> counted((SealedStmt.Counted)stmt);
+            case EXPRESSION -> {
+                evaluate(((SealedStmt.Expression)stmt).expression());
+                yield null;
+            }
+            case FUNCTION -> function((SealedStmt.Function)stmt);
+            case HOIST -> hoist((SealedStmt.Hoist)stmt);
+            case IF -> ifStatement((SealedStmt.If)stmt);
+            case VAR -> var((SealedStmt.Var)stmt);
+            case PRINT -> {
+                Object value = evaluate(((SealedStmt.Print)stmt).expression());
+                context.out.println(stringify(value));
+                yield null;
+            }
+            case RETURN -> {
+                SealedExpr value = ((SealedStmt.Return)stmt).value();
+                returnValue = value == null ? null : evaluate(value);
+                returning = true;
+                yield null;
+            }
+            case WHILE -> whileStatement((SealedStmt.While)stmt);
+        };
+    }
+
+    private Void block(SealedStmt.Block stmt) {
+        for (SealedStmt statement : stmt.statements()) {
+            execute(statement);
+            if (returning) break;
+        }
+        return null;
+    }
+
+    private Void function(SealedStmt.Function stmt) {
+        if (stmt.access() == Resolver.Access.CELL) {
+            Cell cell = new Cell(null);
+            frame[stmt.slot()] = cell;
+            cell.value = new Function(stmt, closure(stmt), this);
+            return null;
+        }
+        define(stmt.access(), stmt.slot(), stmt.name(), new Function(stmt, closure(stmt), this));
+        return null;
+    }
+
+    private Cell[] closure(SealedStmt.Function stmt) {
+        int[] sources = stmt.captures();
+        if (sources.length == 0) return NO_CAPTURES;
+        Cell[] cells = new Cell[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            int source = sources[i];
+            cells[i] = source >= 0 ? (Cell)frame[source] : captures[-1 - source];
+        }
+        return cells;
+    }
+
+    private void define(Resolver.Access access, int slot, Token name, Object value) {
+        switch (access) {
+            case LOCAL -> frame[slot] = value;
+            case CELL -> frame[slot] = new Cell(value);
+            default -> globals.define(name.lexeme, value);
+        }
+    }
+
+    private Object invoke(Function function, Object[] calleeFrame) {
+        boolean[] cellParams = function.declaration.cellParams();
+        for (int i = 0; i < cellParams.length; i++) {
+            if (cellParams[i]) calleeFrame[i] = new Cell(calleeFrame[i]);
+        }
+
+        Object[] previousFrame = frame;
+        Cell[] previousCaptures = captures;
+        frame = calleeFrame;
+        captures = function.closure;
+        try {
+            for (SealedStmt statement : function.declaration.body()) {
+                execute(statement);
+                if (returning) break;
+            }
+        } finally {
+            frame = previousFrame;
+            captures = previousCaptures;
+        }
+
+        Object result = returnValue;
+        returning = false;
+        returnValue = null;
+        return result;
+    }
+
+    private Void counted(SealedStmt.Counted stmt) {
+        Object counter = frame[stmt.slot()];
+        if (!(counter instanceof Long)) return whileStatement(stmt.loop());
+        SealedExpr.Binary condition = (SealedExpr.Binary)stmt.loop().condition();
+        Object limit = evaluate(condition.right());
+        if (!LoxNumbers.isNumber(limit)) return whileStatement(stmt.loop());
+
+        TokenType operator = condition.operator().type;
+        boolean up = operator == TokenType.LESS || operator == TokenType.LESS_EQUAL;
+        long bound = LoxNumbers.bound(operator, limit);
+        long i = (long)counter;
+        boolean widened = false;
+        while (up ? i < bound : i > bound) {
+            if (stmt.readsCounter()) frame[stmt.slot()] = i;
+            execute(stmt.body());
+            if (returning) break;
+            i += stmt.step();
+            if (i > LoxNumbers.MAX_EXACT || i < -LoxNumbers.MAX_EXACT) {
+                widened = true;
+                break;
+            }
+        }
+        frame[stmt.slot()] = widened ? LoxNumbers.add(i - stmt.step(), stmt.step()) : i;
+        if (widened) whileStatement(stmt.loop());
+        return null;
+    }
+
+    private Void hoist(SealedStmt.Hoist stmt) {
+        for (SealedExpr expr : stmt.hoisted()) {
+            SealedExpr.Hoisted hoisted = (SealedExpr.Hoisted)expr;
+            try {
+                frame[hoisted.slot()] = evaluate(hoisted.expression());
+            } catch (RuntimeError error) {
+                frame[hoisted.slot()] = Interpreter.UNCOMPUTED;
+            }
+        }
+        return null;
+    }
+
+    private Void ifStatement(SealedStmt.If stmt) {
+        if (isTruthy(evaluate(stmt.condition()))) {
+            execute(stmt.thenBranch());
+        } else if (stmt.elseBranch() != null) {
+            execute(stmt.elseBranch());
+        }
+        return null;
+    }
+
+    private Void var(SealedStmt.Var stmt) {
+        Object value = null;
+        if (stmt.initializer() != null) {
+            value = evaluate(stmt.initializer());
+        }
+        define(stmt.access(), stmt.slot(), stmt.name(), value);
+        return null;
+    }
+
+    private Void whileStatement(SealedStmt.While stmt) {
+        while (isTruthy(evaluate(stmt.condition()))) {
+            execute(stmt.body());
+            if (returning) break;
+        }
+        return null;
+    }
+
+    private Object evaluate(SealedExpr expr) {
+        return switch (expr.kind()) {
+            case ASSIGN -> assign((SealedExpr.Assign)expr);
+            case BINARY -> binary((SealedExpr.Binary)expr);
+            case CALL -> call((SealedExpr.Call)expr);
+            case INDEX -> index((SealedExpr.Index)expr);
+            case SETINDEX -> setIndex((SealedExpr.SetIndex)expr);
+            case LENGTH -> LoxArray.length(((SealedExpr.Length)expr).name(),
+                evaluate(((SealedExpr.Length)expr).object()));
+            case GROUPING -> evaluate(((SealedExpr.Grouping)expr).expression());
+            case HOISTED -> hoisted((SealedExpr.Hoisted)expr);
+            case LITERAL -> ((SealedExpr.Literal)expr).value();
+            case LOGICAL -> logical((SealedExpr.Logical)expr);
+            case SPAWN -> throw new RuntimeError(((SealedExpr.Spawn)expr).keyword(),
+                "Tasks aren't supported here.");
+            case VARIABLE -> variable((SealedExpr.Variable)expr);
+            case UNARY -> unary((SealedExpr.Unary)expr);
+        };
+    }
+
+    private Object hoisted(SealedExpr.Hoisted expr) {
+        Object value = frame[expr.slot()];
+        if (value != Interpreter.UNCOMPUTED) return value;
+        return evaluate(expr.expression());
+    }
+
+    private Object assign(SealedExpr.Assign expr) {
+        Object value = evaluate(expr.value());
+        switch (expr.access()) {
+            case LOCAL -> frame[expr.slot()] = value;
+            case CELL -> ((Cell)frame[expr.slot()]).value = value;
+            case CAPTURE -> captures[expr.slot()].value = value;
+            default -> globals.assign(expr.name(), value);
+        }
+        return value;
+    }
+
+    private Object variable(SealedExpr.Variable expr) {
+        return switch (expr.access()) {
+            case LOCAL -> frame[expr.slot()];
+            case CELL -> ((Cell)frame[expr.slot()]).value;
+            case CAPTURE -> captures[expr.slot()].value;
+            default -> globals.get(expr.name());
+        };
+    }
+
+    private Object call(SealedExpr.Call expr) {
+        Object callee = evaluate(expr.callee());
+        List<SealedExpr> argumentExprs = expr.arguments();
+        int count = argumentExprs.size();
+
+        if (callee instanceof Function) {
+            Function function = (Function)callee;
+            if (count == function.declaration.params().size()) {
+                Object[] calleeFrame = new Object[function.declaration.frameSize()];
+                for (int i = 0; i < count; i++) {
+                    calleeFrame[i] = evaluate(argumentExprs.get(i));
+                }
+                return invoke(function, calleeFrame);
+            }
+        }
+
+        if (callee instanceof NativeFunction) {
+            return callNative((NativeFunction)callee, expr.paren(), argumentExprs);
+        }
+
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
+        }
+        return callable(callee, count, expr.paren()).call(arguments);
+    }
+
+    private Object index(SealedExpr.Index expr) {
+        Object array = evaluate(expr.object());
+        Object index = evaluate(expr.index());
+        return LoxArray.get(expr.bracket(), array, index);
+    }
+
+    private Object setIndex(SealedExpr.SetIndex expr) {
+        Object array = evaluate(expr.object());
+        Object index = evaluate(expr.index());
+        Object value = evaluate(expr.value());
+        LoxArray.set(expr.bracket(), array, index, value);
+        return value;
+    }
+
+    private Object callNative(NativeFunction function, Token paren,
+            List<SealedExpr> argumentExprs) {
+        int count = argumentExprs.size();
+        if (count == function.arity()) {
+            if (function instanceof NativeFunction.Unary) {
+                Object x = evaluate(argumentExprs.get(0));
+                return Interpreter.callUnary((NativeFunction.Unary)function, paren, x);
+            }
+            if (function instanceof NativeFunction.Binary) {
+                Object x = evaluate(argumentExprs.get(0));
+                Object y = evaluate(argumentExprs.get(1));
+                return Interpreter.callBinary((NativeFunction.Binary)function, paren, x, y);
+            }
+            if (function instanceof NativeFunction.Nullary) {
+                return Interpreter.callNullary((NativeFunction.Nullary)function);
+            }
+        }
+
+        Object[] arguments = new Object[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = evaluate(argumentExprs.get(i));
+        }
+        try {
+            return callable(function, count, paren).call(arguments);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    private Object logical(SealedExpr.Logical expr) {
+        Object left = evaluate(expr.left());
+
+        if (expr.operator().type == TokenType.OR) {
+            if (isTruthy(left)) return left;
+        } else {
+            if (!isTruthy(left)) return left;
+        }
+
+        return evaluate(expr.right());
+    }
+
+    private Object unary(SealedExpr.Unary expr) {
+        return Interpreter.unary(expr.operator(), evaluate(expr.right()));
+    }
+
+    private Object binary(SealedExpr.Binary expr) {
+        // Operands are evaluated left to right before any type checks,
+        // exactly like Interpreter.visitBinaryExpr
+        Object left = evaluate(expr.left());
+        Object right = evaluate(expr.right());
+        return Interpreter.binary(expr.operator(), left, right);
+    }
+}
@@ -2,7 +2,7 @@ package com.craftinginterpreters.lox;
 
 enum TokenType {
     // Single-character tokens
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
     // One or two-character tokens
     BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL,
@@ -11,7 +11,7 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
     // KEYWORDS
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    PRINT, RETURN, SPAWN, SUPER, THIS, TRUE, VAR, WHILE,
 
     EOF
 }
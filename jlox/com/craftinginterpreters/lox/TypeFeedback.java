@@ -0,0 +1,253 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+// Type feedback for profile-guided runs (`jlox --pgo script.lox`).
+//
+// While a script runs, the interpreter notes which kinds of operands every
+// binary operator saw and how often it ran, and how many iterations every
+// loop ran. Sites are numbered by the Parser in source order
+// (Expr.Binary.site, Stmt.While.site), so a source numbers them the same
+// way every time it's parsed, optimized or not, cached or not.
+//
+// The feedback is written next to the script (script.loxp), keyed by the
+// hash of its source, and read back by the next run of the same source.
+// For each operator that only ever saw one kind of operands, and ran at
+// least HOT times, that run guesses it will again: it checks for exactly
+// those operand types and goes straight to the arithmetic (see Guess),
+// skipping the operator's general dispatch. A wrong guess falls back to
+// the general path and is dropped for the rest of the run (reported as a
+// lox.Deoptimize event). The run records the mixed operands it saw, so
+// the run after it doesn't guess that operator at all.
+//
+// The file is text, one site per line, so the hot loops and the
+// operators that went polymorphic can be read straight off it:
+//
+//   lox-feedback 2 <source sha-256>
+//   binary <site> <line> <kinds> <count>
+//   loop <site> <line> <iterations>
+final class TypeFeedback {
+
+    private static final String HEADER = "lox-feedback 2 ";
+
+    // An operator has to run this often before a guess is worth its check
+    static final long HOT = 100;
+
+    // The operand kinds a binary operator saw, as bits
+    private static final int LONGS = 1;
+    private static final int DOUBLES = 2;
+    private static final int MIXED_NUMBERS = 4;
+    private static final int STRINGS = 8;
+    private static final int OTHER = 16;
+    private static final String KIND_LETTERS = "LDMSO";
+
+    // Indexed by site, and grown as sites turn up
+    private int[] kinds = new int[64];
+    private long[] counts = new long[64];
+    private int[] binaryLines = new int[64];
+    private long[] iterations = new long[16];
+    private int[] loopLines = new int[16];
+
+    // A guessed pair of operand types for one operator
+    enum Guess {
+        LONGS {
+            @Override
+            Object apply(TokenType operator, Object left, Object right) {
+                if (!(left instanceof Long) || !(right instanceof Long)) return null;
+                long a = (long)left;
+                long b = (long)right;
+                switch (operator) {
+                    case GREATER: return a > b;
+                    case GREATER_EQUAL: return a >= b;
+                    case LESS: return a < b;
+                    case LESS_EQUAL: return a <= b;
+                    case EQUAL_EQUAL: return a == b;
+                    case BANG_EQUAL: return a != b;
+                    // These still have to check the result is exact
+                    case PLUS: return LoxNumbers.add(left, right);
+                    case MINUS: return LoxNumbers.subtract(left, right);
+                    case STAR: return LoxNumbers.multiply(left, right);
+                    case SLASH: return LoxNumbers.divide(left, right);
+                    default: return null;
+                }
+            }
+        },
+        DOUBLES {
+            @Override
+            Object apply(TokenType operator, Object left, Object right) {
+                if (!(left instanceof Double) || !(right instanceof Double)) return null;
+                double a = (double)left;
+                double b = (double)right;
+                switch (operator) {
+                    case GREATER: return a > b;
+                    case GREATER_EQUAL: return a >= b;
+                    case LESS: return a < b;
+                    case LESS_EQUAL: return a <= b;
+                    case EQUAL_EQUAL: return LoxNumbers.equal(left, right);
+                    case BANG_EQUAL: return !LoxNumbers.equal(left, right);
+                    case PLUS: return a + b;
+                    case MINUS: return a - b;
+                    case STAR: return a * b;
+                    case SLASH: return a / b;
+                    default: return null;
+                }
+            }
+        },
+        STRINGS {
+            @Override
+            Object apply(TokenType operator, Object left, Object right) {
+                if (!(left instanceof String) || !(right instanceof String)) return null;
+                switch (operator) {
+                    case PLUS: return (String)left + (String)right;
+                    case EQUAL_EQUAL: return left.equals(right);
+                    case BANG_EQUAL: return !left.equals(right);
+                    default: return null;
+                }
+            }
+        };
+
+        // What Interpreter.binary() would return, if the operands are what
+        // was guessed; null if they aren't
+        abstract Object apply(TokenType operator, Object left, Object right);
+    }
+
+    void binary(Expr.Binary expr, Object left, Object right) {
+        int site = expr.site;
+        if (site >= kinds.length) growBinaries(site);
+        kinds[site] |= kind(left, right);
+        counts[site]++;
+        binaryLines[site] = expr.operator.line;
+    }
+
+    void loop(Stmt.While loop, long ran) {
+        int site = loop.site;
+        if (site >= iterations.length) growLoops(site);
+        iterations[site] += ran;
+        loopLines[site] = loop.keyword.line;
+    }
+
+    private void growBinaries(int site) {
+        int length = Math.max(site + 1, kinds.length * 2);
+        kinds = Arrays.copyOf(kinds, length);
+        counts = Arrays.copyOf(counts, length);
+        binaryLines = Arrays.copyOf(binaryLines, length);
+    }
+
+    private void growLoops(int site) {
+        int length = Math.max(site + 1, iterations.length * 2);
+        iterations = Arrays.copyOf(iterations, length);
+        loopLines = Arrays.copyOf(loopLines, length);
+    }
+
+    private static int kind(Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) return LONGS;
+        if (left instanceof Double && right instanceof Double) return DOUBLES;
+        if (LoxNumbers.isNumber(left) && LoxNumbers.isNumber(right)) return MIXED_NUMBERS;
+        if (left instanceof String && right instanceof String) return STRINGS;
+        return OTHER;
+    }
+
+    // The guess for each binary site, indexed by site (null for none)
+    Guess[] guesses() {
+        Guess[] guesses = new Guess[kinds.length];
+        for (int site = 1; site < kinds.length; site++) {
+            if (counts[site] < HOT) continue;
+            switch (kinds[site]) {
+                case LONGS: guesses[site] = Guess.LONGS; break;
+                case DOUBLES: guesses[site] = Guess.DOUBLES; break;
+                case STRINGS: guesses[site] = Guess.STRINGS; break;
+                default: break;
+            }
+        }
+        return guesses;
+    }
+
+    static Path pathFor(Path source) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return source.resolveSibling(name + ".loxp");
+    }
+
+    // Writes through a temporary file, like ScriptFile.write
+    void write(Path path, String sourceHash) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(),
+            path.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                out.write(HEADER + sourceHash + "\n");
+                for (int site = 1; site < kinds.length; site++) {
+                    if (counts[site] == 0) continue;
+                    out.write("binary " + site + " " + binaryLines[site] + " " +
+                        letters(kinds[site]) + " " + counts[site] + "\n");
+                }
+                for (int site = 1; site < iterations.length; site++) {
+                    if (loopLines[site] == 0) continue;
+                    out.write("loop " + site + " " + loopLines[site] + " " +
+                        iterations[site] + "\n");
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // The feedback recorded for this exact source, or null if there is
+    // none (no file, another source, or a file we can't make sense of)
+    static TypeFeedback read(Path path, String sourceHash) throws IOException {
+        TypeFeedback feedback = new TypeFeedback();
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!(HEADER + sourceHash).equals(in.readLine())) return null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                int site = fields.length > 1 ? Integer.parseInt(fields[1]) : 0;
+                if (site < 1) return null;
+                if (fields[0].equals("binary") && fields.length == 5) {
+                    if (site >= feedback.kinds.length) feedback.growBinaries(site);
+                    feedback.binaryLines[site] = Integer.parseInt(fields[2]);
+                    feedback.kinds[site] = kinds(fields[3]);
+                    feedback.counts[site] = Long.parseLong(fields[4]);
+                } else if (fields[0].equals("loop") && fields.length == 4) {
+                    if (site >= feedback.iterations.length) feedback.growLoops(site);
+                    feedback.loopLines[site] = Integer.parseInt(fields[2]);
+                    feedback.iterations[site] = Long.parseLong(fields[3]);
+                } else {
+                    return null;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return feedback;
+    }
+
+    private static String letters(int kinds) {
+        StringBuilder letters = new StringBuilder();
+        for (int i = 0; i < KIND_LETTERS.length(); i++) {
+            if ((kinds & (1 << i)) != 0) letters.append(KIND_LETTERS.charAt(i));
+        }
+        return letters.toString();
+    }
+
+    private static int kinds(String letters) {
+        int kinds = 0;
+        for (char letter : letters.toCharArray()) {
+            int bit = KIND_LETTERS.indexOf(letter);
+            if (bit < 0) throw new NumberFormatException(letters);
+            kinds |= 1 << bit;
+        }
+        return kinds;
+    }
+}
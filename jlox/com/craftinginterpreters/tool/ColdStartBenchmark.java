@@ -0,0 +1,144 @@
+package com.craftinginterpreters.tool;
+
+import com.craftinginterpreters.lox.LoxClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Measures wall time of complete `jlox script.lox` launches, i.e. what a
+// user waiting on the command line sees: JVM startup, reading the script,
+// scanning/parsing (or loading the .loxc) and running it.
+//
+// Runs the script through a fresh JVM per iteration twice:
+//   source: with --no-cache, so every run scans and parses
+//   loxc:   with a .loxc already written by a priming run
+// and then through a LoxDaemon started for the occasion:
+//   client: a fresh JVM per run, but only to start LoxClient
+//   socket: requests sent from this JVM, i.e. the daemon's own latency
+//
+// Usage: cold_start <script> [runs]
+public class ColdStartBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: cold_start <script> [runs]");
+            System.exit(64);
+        }
+        Path script = Paths.get(args[0]);
+        int runs = args.length == 2 ? Integer.parseInt(args[1]) : 10;
+
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        Path loxc = script.resolveSibling(name + ".loxc");
+
+        Files.deleteIfExists(loxc);
+        long[] source = time(runs, "--no-cache", script.toString());
+
+        // Prime the cache, then measure runs that can use it
+        launch("com.craftinginterpreters.lox.Lox", script.toString());
+        long[] cached = time(runs, script.toString());
+
+        System.out.printf("%-8s %10s %10s %10s%n", "mode", "min ms", "median ms", "max ms");
+        report("source", source);
+        report("loxc", cached);
+
+        Path socket = Files.createTempDirectory("jlox").resolve("daemon.sock");
+        Process daemon = start("com.craftinginterpreters.lox.LoxDaemon", socket.toString())
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try {
+            awaitDaemon(socket, script);
+            report("client", timeClass("com.craftinginterpreters.lox.LoxClient", runs,
+                socket.toString(), script.toString()));
+            report("socket", timeSocket(runs, socket, script));
+        } finally {
+            daemon.destroy();
+            daemon.waitFor();
+        }
+    }
+
+    // Waits for the daemon to start listening, which also warms it up a
+    // little. Its first requests are still slow; runs start after those.
+    private static void awaitDaemon(Path socket, Path script)
+            throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                LoxClient.runFile(socket, script, OutputStream.nullOutputStream(),
+                    OutputStream.nullOutputStream());
+                break;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static long[] timeSocket(int runs, Path socket, Path script)
+            throws IOException {
+        long[] millis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            int status = LoxClient.runFile(socket, script,
+                OutputStream.nullOutputStream(), System.err);
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+            if (status != 0) {
+                System.err.println("Script exited with status " + status);
+                System.exit(status);
+            }
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+
+    private static long[] time(int runs, String... args)
+            throws IOException, InterruptedException {
+        return timeClass("com.craftinginterpreters.lox.Lox", runs, args);
+    }
+
+    private static long[] timeClass(String mainClass, int runs, String... args)
+            throws IOException, InterruptedException {
+        long[] millis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            launch(mainClass, args);
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+
+    private static void launch(String mainClass, String... args)
+            throws IOException, InterruptedException {
+        Process process = start(mainClass, args)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        int status = process.waitFor();
+        if (status != 0) {
+            System.err.println("Script exited with status " + status);
+            System.exit(status);
+        }
+    }
+
+    private static ProcessBuilder start(String mainClass, String... args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command);
+    }
+
+    private static void report(String mode, long[] millis) {
+        System.out.printf("%-8s %10d %10d %10d%n", mode,
+            millis[0], millis[millis.length / 2], millis[millis.length - 1]);
+    }
+}
@@ -2,42 +2,98 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class GenerateAst {
     public static void main(String[] args) throws IOException{
-        if (args.length != 1) {
-            System.err.println("Usage: generate_ast <output_dir>");
+        // --sealed also writes SealedExpr and SealedStmt: the same nodes as
+        // records under a sealed interface, for SwitchInterpreter
+        boolean sealed = false;
+        // --intern adds hash-consing factories (Expr.Interner) for the
+        // immutable leaf and small subtree nodes listed below
+        boolean intern = false;
+        String outputDir = null;
+        for (String arg : args) {
+            if (arg.equals("--sealed")) {
+                sealed = true;
+            } else if (arg.equals("--intern")) {
+                intern = true;
+            } else if (outputDir == null && !arg.startsWith("--")) {
+                outputDir = arg;
+            } else {
+                outputDir = null;
+                break;
+            }
+        }
+        if (outputDir == null) {
+            System.err.println("Usage: generate_ast [--sealed] [--intern] <output_dir>");
             System.exit(64);
         }
-        String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
+        // Fields after a ';' aren't set by the parser: they start out
+        // empty and the Resolver fills them in before anything runs, or
+        // the pass named in brackets after the ';' does
+        List<String> exprTypes = Arrays.asList(
+                "Assign   : Token name, Expr value ; Resolver.Access access, int slot",
+                "Binary   : Expr left, Token operator, Expr right, int site",
+                "Call     : Expr callee, Token paren, List<Expr> arguments",
+                "Index    : Expr object, Token bracket, Expr index",
+                "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+                "Length   : Expr object, Token name",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Variable : Token name",
-                "Unary    : Token operator, Expr right"));
-        defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block : List<Stmt> statements",
+                "Variable : Token name ; Resolver.Access access, int slot",
+                "Unary    : Token operator, Expr right",
+                "Spawn    : Token keyword, Expr call",
+                "Hoisted  : Expr expression ; [Optimizer] int slot");
+        List<String> stmtTypes = Arrays.asList(
+            "Block : Token brace, List<Stmt> statements",
             "Expression : Expr expression",
-            "If         : Expr condition, Stmt thenBranch," +
-                        " Stmt elseBranch",
-            "Var : Token name, Expr initializer",
-            "Print : Expr expression",
-            "While : Expr condition, Stmt body"
-        ));
+            "Function   : Token name, List<Token> params, List<Stmt> body" +
+                        " ; Resolver.Access access, int slot, int frameSize," +
+                        " int[] captures, boolean[] cellParams",
+            "If         : Token keyword, Expr condition," +
+                        " Stmt thenBranch, Stmt elseBranch",
+            "Var : Token name, Expr initializer ; Resolver.Access access, int slot",
+            "Print : Token keyword, Expr expression",
+            "Return : Token keyword, Expr value",
+            "While : Token keyword, Expr condition, Stmt body, int site",
+            "Hoist : Token keyword, List<Expr> hoisted",
+            "Counted : Stmt.While loop, Stmt body" +
+                    " ; [Optimizer] int slot, long step, boolean readsCounter"
+        );
+
+        List<String> internedExprTypes = intern
+            ? Arrays.asList("Literal", "Grouping", "Unary", "Binary")
+            : Arrays.asList();
+
+        defineAst(outputDir, "Expr", exprTypes, internedExprTypes);
+        defineAst(outputDir, "Stmt", stmtTypes, Arrays.asList());
+        if (sealed) {
+            defineSealedAst(outputDir, "Expr", exprTypes);
+            defineSealedAst(outputDir, "Stmt", stmtTypes);
+        }
     }
 
     public static void defineAst(
-            String outputDir, String baseName, List<String> types) throws IOException {
+            String outputDir, String baseName, List<String> types,
+            List<String> interned) throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
         writer.println("package com.craftinginterpreters.lox;");
         writer.println();
+        if (!interned.isEmpty()) {
+            writer.println("import java.util.Arrays;");
+            writer.println("import java.util.HashMap;");
+        }
         writer.println("import java.util.List;");
+        if (!interned.isEmpty()) {
+            writer.println("import java.util.Map;");
+        }
         writer.println();
         writer.println("abstract class " + baseName + " {");
 
@@ -45,11 +101,15 @@ public class GenerateAst {
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields(type), resolvedFields(type),
+                resolvedBy(type));
 
         }
 
+        if (!interned.isEmpty()) {
+            defineInterner(writer, baseName, types, interned);
+        }
+
         writer.println();
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
         writer.println("}");
@@ -73,11 +133,37 @@ public class GenerateAst {
         writer.println("    }");
     }
 
+    // The constructor's fields of a type, e.g. "Token name, Expr value"
+    private static String fields(String type) {
+        return type.split(":")[1].split(";")[0].trim();
+    }
+
+    // "[Optimizer]" at the start of the fields after the ';'
+    private static final Pattern PASS = Pattern.compile("^\\s*\\[(\\w+)\\]");
+
+    // The fields after the ';', or null when there are none
+    private static String resolvedFields(String type) {
+        String[] parts = type.split(":")[1].split(";");
+        if (parts.length == 1) return null;
+        return PASS.matcher(parts[1]).replaceFirst("").trim();
+    }
+
+    // The pass that sets the fields after the ';': the one named in
+    // brackets, or the Resolver
+    private static String resolvedBy(String type) {
+        String[] parts = type.split(":")[1].split(";");
+        if (parts.length == 1) return "Resolver";
+        Matcher pass = PASS.matcher(parts[1]);
+        return pass.find() ? pass.group(1) : "Resolver";
+    }
+
     public static void defineType(
         PrintWriter writer,
         String basename, 
         String className,
-        String fieldList
+        String fieldList,
+        String resolvedList,
+        String resolvedBy
     ) {
         writer.println("    static class " + className + " extends " + basename + " {");
         // Constructor
@@ -102,6 +188,126 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        if (resolvedList != null) {
+            writer.println("    // Set by the " + resolvedBy);
+            for (String field : resolvedList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
+        writer.println("    }");
+    }
+
+    public static void defineInterner(
+        PrintWriter writer,
+        String baseName,
+        List<String> types,
+        List<String> interned
+    ) {
+        writer.println();
+        writer.println("    // Hash-consing factories: structurally equal nodes built through");
+        writer.println("    // the same Interner are one shared instance. Child nodes are");
+        writer.println("    // compared by identity (so they should be interned too) and tokens");
+        writer.println("    // by type and lexeme, ignoring the line. Only intern nodes whose");
+        writer.println("    // behavior can't depend on which line their tokens came from.");
+        writer.println("    static class Interner {");
+        writer.println("        private final Map<List<Object>, " + baseName + "> nodes = new HashMap<>();");
+        writer.println();
+        writer.println("        int size() {");
+        writer.println("            return nodes.size();");
+        writer.println("        }");
+        writer.println();
+        writer.println("        private static Object key(Token token) {");
+        writer.println("            return Arrays.asList(token.type, token.lexeme, token.literal);");
+        writer.println("        }");
+
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            if (!interned.contains(className)) continue;
+            String fieldList = fields(type);
+            if (resolvedFields(type) != null) {
+                throw new IllegalArgumentException(
+                    "Can't intern " + className + ", the " + resolvedBy(type) + " writes to it.");
+            }
+            String[] fields = fieldList.split(", ");
+
+            List<String> keyParts = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            keyParts.add("\"" + className + "\"");
+            for (String field : fields) {
+                String fieldType = field.split(" ")[0];
+                String name = field.split(" ")[1];
+                if (fieldType.startsWith("List<")) {
+                    throw new IllegalArgumentException(
+                        "Can't intern " + className + ", it has a list field.");
+                }
+                names.add(name);
+                keyParts.add(fieldType.equals("Token") ? "key(" + name + ")" : name);
+            }
+
+            String method = Character.toLowerCase(className.charAt(0)) + className.substring(1);
+            writer.println();
+            writer.println("        " + className + " " + method + "(" + fieldList + ") {");
+            writer.println("            List<Object> key = Arrays.asList(" + String.join(", ", keyParts) + ");");
+            writer.println("            " + baseName + " node = nodes.get(key);");
+            writer.println("            if (node == null) {");
+            writer.println("                node = new " + className + "(" + String.join(", ", names) + ");");
+            writer.println("                nodes.put(key, node);");
+            writer.println("            }");
+            writer.println("            return (" + className + ")node;");
+            writer.println("        }");
+        }
+        writer.println("    }");
+    }
+
+    public static void defineSealedAst(
+            String outputDir, String baseName, List<String> types) throws IOException {
+        String sealedName = "Sealed" + baseName;
+        String path = outputDir + "/" + sealedName + ".java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+
+        List<String> permits = new ArrayList<>();
+        for (String type : types) {
+            permits.add(sealedName + "." + type.split(":")[0].trim());
+        }
+        writer.println("sealed interface " + sealedName + " permits");
+        writer.println("        " + String.join(",\n        ", permits) + " {");
+
+        // Java 17 can't switch over the records themselves yet, so every
+        // node also reports an enum constant that can be switched on
+        writer.println("    enum Kind {");
+        List<String> kinds = new ArrayList<>();
+        for (String type : types) {
+            kinds.add(type.split(":")[0].trim().toUpperCase());
+        }
+        writer.println("        " + String.join(", ", kinds));
         writer.println("    }");
+        writer.println();
+        writer.println("    Kind kind();");
+
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            // Records can't be written to later, so what the Resolver (or
+            // Optimizer) found is passed in along with everything else
+            String fields = fields(type);
+            if (resolvedFields(type) != null) fields += ", " + resolvedFields(type);
+            // Children point at the sealed types too
+            fields = fields.replaceAll("\\bExpr\\b", "SealedExpr")
+                .replaceAll("\\bStmt\\b", "SealedStmt");
+            writer.println();
+            writer.println("    record " + className + "(" + fields + ") implements " + sealedName + " {");
+            writer.println("        @Override");
+            writer.println("        public Kind kind() {");
+            writer.println("            return Kind." + className.toUpperCase() + ";");
+            writer.println("        }");
+            writer.println("    }");
+        }
+
+        writer.println("}");
+        writer.close();
     }
 }
@@ -0,0 +1,623 @@
+package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+// Generates synthetic Lox programs of a controllable size and shape for
+// scaling benchmarks, e.g.
+//   generate_workload --seed 7 --statements 5000 --depth 4 big.lox
+//
+// Programs only use what Parser accepts today: var, print, blocks, if/else,
+// while/for, and/or, arithmetic, comparisons and string concatenation.
+// The same seed and options always produce the same program.
+//
+// Every generated node also knows how to evaluate itself, so with
+// --expected the generator writes the output jlox must print, and the
+// same corpus can check correctness as well as drive performance runs.
+public class GenerateWorkload {
+
+    private static final String USAGE =
+        "Usage: generate_workload [--seed N] [--statements N] [--depth D]\n" +
+        "                         [--expr-depth E] [--loop-trips T] [--strings FRACTION]\n" +
+        "                         [--expected <output_file>] <output_file>";
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        String output = null;
+        String expectedOutput = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                if (output != null) usage();
+                output = arg;
+                continue;
+            }
+            if (i + 1 == args.length) usage();
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--seed": options.seed = Long.parseLong(value); break;
+                    case "--statements": options.statements = Integer.parseInt(value); break;
+                    case "--depth": options.depth = Integer.parseInt(value); break;
+                    case "--expr-depth": options.exprDepth = Integer.parseInt(value); break;
+                    case "--loop-trips": options.loopTrips = Integer.parseInt(value); break;
+                    case "--strings": options.strings = Double.parseDouble(value); break;
+                    case "--expected": expectedOutput = value; break;
+                    default: usage();
+                }
+            } catch (NumberFormatException e) {
+                usage();
+            }
+        }
+        if (output == null) usage();
+
+        Program program = generate(options);
+
+        try (PrintWriter writer = new PrintWriter(output, "UTF-8")) {
+            writer.print(program.source);
+        }
+        if (expectedOutput != null) {
+            try (PrintWriter writer = new PrintWriter(expectedOutput, "UTF-8")) {
+                for (String line : program.run()) {
+                    writer.println(line);
+                }
+            }
+        }
+    }
+
+    // Also how RunTests gets its generated scripts
+    static Program generate(Options options) {
+        return new Generator(options).program();
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(64);
+    }
+
+    static class Options {
+        long seed = 1;
+        // Top-level statements
+        int statements = 100;
+        // How deeply blocks, ifs and loops may nest
+        int depth = 3;
+        // How deeply expressions may nest
+        int exprDepth = 3;
+        // Iterations of each generated loop
+        int loopTrips = 100;
+        // Fraction of variables that hold strings rather than numbers
+        double strings = 0.25;
+    }
+
+    static class Program {
+        final String source;
+        private final List<Statement> statements;
+
+        Program(String source, List<Statement> statements) {
+            this.source = source;
+            this.statements = statements;
+        }
+
+        // Runs the model of the program and returns the lines it prints
+        List<String> run() {
+            Model model = new Model();
+            for (Statement statement : statements) {
+                statement.execute(model);
+            }
+            return model.printed;
+        }
+    }
+
+    // The static types the generator tracks, so every expression it builds
+    // is well-typed and can never raise a runtime error
+    private enum Type { NUMBER, STRING, BOOLEAN }
+
+    // Runtime state of the model: nested scopes and the printed lines
+    private static class Model {
+        final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+        final List<String> printed = new ArrayList<>();
+
+        Model() {
+            scopes.push(new HashMap<>());
+        }
+
+        Object get(String name) {
+            for (Map<String, Object> scope : scopes) {
+                if (scope.containsKey(name)) return scope.get(name);
+            }
+            throw new IllegalStateException("Generated an undefined variable " + name);
+        }
+
+        void assign(String name, Object value) {
+            for (Map<String, Object> scope : scopes) {
+                if (scope.containsKey(name)) {
+                    scope.put(name, value);
+                    return;
+                }
+            }
+            throw new IllegalStateException("Generated an undefined variable " + name);
+        }
+    }
+
+    // A generated expression: its source, and its value
+    private interface Expression {
+        void emit(StringBuilder out);
+
+        Object evaluate(Model model);
+    }
+
+    // A generated statement: its source, and its effect
+    private interface Statement {
+        void emit(StringBuilder out, int indent);
+
+        void execute(Model model);
+    }
+
+    private static void indent(StringBuilder out, int indent) {
+        for (int i = 0; i < indent; i++) out.append("    ");
+    }
+
+    // Mirrors Interpreter.stringify
+    private static String stringify(Object object) {
+        if (object == null) return "nil";
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+
+    private static class Generator {
+        private final Options options;
+        private final Random random;
+        // Static types of the variables in scope, innermost first
+        private final Deque<Map<String, Type>> scopes = new ArrayDeque<>();
+        private final Set<String> loopCounters = new HashSet<>();
+        private int nextName = 0;
+        private boolean inLoop = false;
+
+        Generator(Options options) {
+            this.options = options;
+            this.random = new Random(options.seed);
+            scopes.push(new HashMap<>());
+        }
+
+        Program program() {
+            List<Statement> statements = new ArrayList<>();
+            // Seed a few variables of each type so expressions have something to use
+            statements.add(varDeclaration(Type.NUMBER));
+            statements.add(varDeclaration(Type.STRING));
+            while (statements.size() < options.statements) {
+                statements.add(statement(0));
+            }
+
+            StringBuilder out = new StringBuilder();
+            out.append("// Generated by generate_workload --seed ").append(options.seed)
+                .append(" --statements ").append(options.statements)
+                .append(" --depth ").append(options.depth)
+                .append(" --expr-depth ").append(options.exprDepth)
+                .append(" --loop-trips ").append(options.loopTrips)
+                .append(" --strings ").append(options.strings).append('\n');
+            for (Statement statement : statements) {
+                statement.emit(out, 0);
+            }
+            return new Program(out.toString(), statements);
+        }
+
+        private Statement statement(int depth) {
+            int choice = random.nextInt(depth < options.depth ? 10 : 6);
+            switch (choice) {
+                case 0: case 1:
+                    return varDeclaration(random.nextDouble() < options.strings
+                        ? Type.STRING : Type.NUMBER);
+                case 2: case 3: {
+                    Statement assignment = assignment();
+                    if (assignment != null) return assignment;
+                    return print();
+                }
+                case 4: case 5:
+                    return print();
+                case 6: case 7:
+                    return block(depth + 1);
+                case 8:
+                    return ifStatement(depth + 1);
+                default:
+                    // Loops don't nest, so run time stays linear in --loop-trips
+                    if (inLoop) return block(depth + 1);
+                    return loop(depth + 1);
+            }
+        }
+
+        private Statement varDeclaration(Type type) {
+            String name = "v" + nextName++;
+            Expression initializer = expression(type, options.exprDepth);
+            scopes.peek().put(name, type);
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    out.append("var ").append(name).append(" = ");
+                    initializer.emit(out);
+                    out.append(";\n");
+                }
+
+                public void execute(Model model) {
+                    model.scopes.peek().put(name, initializer.evaluate(model));
+                }
+            };
+        }
+
+        private Statement assignment() {
+            List<String> names = new ArrayList<>();
+            for (Map<String, Type> scope : scopes) {
+                names.addAll(scope.keySet());
+            }
+            // Only the increment may touch a loop counter, or loops might never end
+            names.removeAll(loopCounters);
+            if (names.isEmpty()) return null;
+            names.sort(null);
+            String name = names.get(random.nextInt(names.size()));
+            Type type = lookup(name);
+
+            Expression value;
+            if (type == Type.NUMBER && inLoop) {
+                // acc = acc + <small expression>
+                value = binary(variable(name), "+", expression(Type.NUMBER, 1));
+            } else if (type == Type.STRING && !inLoop && random.nextBoolean()) {
+                // Inside loops strings are only replaced, never grown,
+                // so their length doesn't scale with the trip count
+                value = binary(variable(name), "+", stringLiteral());
+            } else {
+                value = expression(type, options.exprDepth);
+            }
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    out.append(name).append(" = ");
+                    value.emit(out);
+                    out.append(";\n");
+                }
+
+                public void execute(Model model) {
+                    model.assign(name, value.evaluate(model));
+                }
+            };
+        }
+
+        private Statement print() {
+            Type type = Type.values()[random.nextInt(3)];
+            Expression value = expression(type, options.exprDepth);
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    out.append("print ");
+                    value.emit(out);
+                    out.append(";\n");
+                }
+
+                public void execute(Model model) {
+                    model.printed.add(stringify(value.evaluate(model)));
+                }
+            };
+        }
+
+        private Statement block(int depth) {
+            List<Statement> body = blockBody(depth);
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    out.append("{\n");
+                    for (Statement statement : body) statement.emit(out, indent + 1);
+                    indent(out, indent);
+                    out.append("}\n");
+                }
+
+                public void execute(Model model) {
+                    model.scopes.push(new HashMap<>());
+                    for (Statement statement : body) statement.execute(model);
+                    model.scopes.pop();
+                }
+            };
+        }
+
+        private List<Statement> blockBody(int depth) {
+            scopes.push(new HashMap<>());
+            List<Statement> body = new ArrayList<>();
+            int count = 1 + random.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                body.add(statement(depth));
+            }
+            scopes.pop();
+            return body;
+        }
+
+        private Statement ifStatement(int depth) {
+            Expression condition = expression(Type.BOOLEAN, options.exprDepth);
+            Statement thenBranch = block(depth);
+            Statement elseBranch = random.nextBoolean() ? block(depth) : null;
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    out.append("if (");
+                    condition.emit(out);
+                    out.append(")\n");
+                    thenBranch.emit(out, indent);
+                    if (elseBranch != null) {
+                        indent(out, indent);
+                        out.append("else\n");
+                        elseBranch.emit(out, indent);
+                    }
+                }
+
+                public void execute(Model model) {
+                    if ((Boolean)condition.evaluate(model)) {
+                        thenBranch.execute(model);
+                    } else if (elseBranch != null) {
+                        elseBranch.execute(model);
+                    }
+                }
+            };
+        }
+
+        private Statement loop(int depth) {
+            String counter = "i" + nextName++;
+            int trips = options.loopTrips;
+            boolean useWhile = random.nextBoolean();
+
+            inLoop = true;
+            scopes.push(new HashMap<>());
+            scopes.peek().put(counter, Type.NUMBER);
+            loopCounters.add(counter);
+            List<Statement> body = blockBody(depth);
+            scopes.pop();
+            inLoop = false;
+
+            return new Statement() {
+                public void emit(StringBuilder out, int indent) {
+                    indent(out, indent);
+                    if (useWhile) {
+                        // The same loop, spelled out by hand
+                        out.append("{\n");
+                        indent(out, indent + 1);
+                        out.append("var ").append(counter).append(" = 0;\n");
+                        indent(out, indent + 1);
+                        out.append("while (").append(counter).append(" < ")
+                            .append(trips).append(") {\n");
+                        for (Statement statement : body) statement.emit(out, indent + 2);
+                        indent(out, indent + 2);
+                        out.append(counter).append(" = ").append(counter).append(" + 1;\n");
+                        indent(out, indent + 1);
+                        out.append("}\n");
+                        indent(out, indent);
+                        out.append("}\n");
+                    } else {
+                        out.append("for (var ").append(counter).append(" = 0; ")
+                            .append(counter).append(" < ").append(trips).append("; ")
+                            .append(counter).append(" = ").append(counter).append(" + 1) {\n");
+                        for (Statement statement : body) statement.emit(out, indent + 1);
+                        indent(out, indent);
+                        out.append("}\n");
+                    }
+                }
+
+                public void execute(Model model) {
+                    model.scopes.push(new HashMap<>());
+                    model.scopes.peek().put(counter, 0.0);
+                    while ((Double)model.get(counter) < trips) {
+                        model.scopes.push(new HashMap<>());
+                        for (Statement statement : body) statement.execute(model);
+                        model.scopes.pop();
+                        model.assign(counter, (Double)model.get(counter) + 1);
+                    }
+                    model.scopes.pop();
+                }
+            };
+        }
+
+        private Type lookup(String name) {
+            for (Map<String, Type> scope : scopes) {
+                Type type = scope.get(name);
+                if (type != null) return type;
+            }
+            return null;
+        }
+
+        private String randomVariable(Type type) {
+            List<String> names = new ArrayList<>();
+            for (Map<String, Type> scope : scopes) {
+                for (Map.Entry<String, Type> entry : scope.entrySet()) {
+                    if (entry.getValue() == type) names.add(entry.getKey());
+                }
+            }
+            if (names.isEmpty()) return null;
+            names.sort(null);
+            return names.get(random.nextInt(names.size()));
+        }
+
+        private Expression expression(Type type, int depth) {
+            switch (type) {
+                case NUMBER: return number(depth);
+                case STRING: return string(depth);
+                default: return bool(depth);
+            }
+        }
+
+        private Expression number(int depth) {
+            int choice = random.nextInt(depth > 0 ? 7 : 2);
+            switch (choice) {
+                case 0: {
+                    String name = randomVariable(Type.NUMBER);
+                    if (name != null) return variable(name);
+                    return numberLiteral();
+                }
+                case 1: return numberLiteral();
+                case 2: return binary(number(depth - 1), "+", number(depth - 1));
+                case 3: return binary(number(depth - 1), "-", number(depth - 1));
+                case 4: return binary(number(depth - 1), "*", number(depth - 1));
+                // Only divide by non-zero literals
+                case 5: return binary(number(depth - 1), "/", numberLiteral(1 + random.nextInt(9)));
+                default: return unary("-", grouping(number(depth - 1)));
+            }
+        }
+
+        private Expression string(int depth) {
+            int choice = random.nextInt(depth > 0 ? 3 : 2);
+            switch (choice) {
+                case 0: {
+                    String name = randomVariable(Type.STRING);
+                    if (name != null) return variable(name);
+                    return stringLiteral();
+                }
+                case 1: return stringLiteral();
+                // Only the leftmost operand can be a variable, so strings
+                // grow linearly over the program instead of doubling
+                default: return binary(string(depth - 1), "+", stringLiteral());
+            }
+        }
+
+        private Expression bool(int depth) {
+            int choice = random.nextInt(depth > 0 ? 8 : 1);
+            String[] comparisons = { "<", "<=", ">", ">=" };
+            switch (choice) {
+                case 0: {
+                    boolean value = random.nextBoolean();
+                    return literal(value, String.valueOf(value));
+                }
+                case 1: case 2:
+                    return binary(number(depth - 1),
+                        comparisons[random.nextInt(comparisons.length)], number(depth - 1));
+                case 3:
+                    return binary(number(depth - 1), random.nextBoolean() ? "==" : "!=",
+                        number(depth - 1));
+                case 4:
+                    return binary(string(depth - 1), random.nextBoolean() ? "==" : "!=",
+                        string(depth - 1));
+                case 5: return unary("!", grouping(bool(depth - 1)));
+                case 6: return binary(bool(depth - 1), "and", bool(depth - 1));
+                default: return binary(bool(depth - 1), "or", bool(depth - 1));
+            }
+        }
+
+        private Expression numberLiteral() {
+            if (random.nextInt(4) == 0) {
+                // One decimal place, so the literal is parsed exactly as written
+                int tenths = random.nextInt(1000);
+                return literal(Double.parseDouble((tenths / 10) + "." + (tenths % 10)),
+                    (tenths / 10) + "." + (tenths % 10));
+            }
+            return numberLiteral(random.nextInt(100));
+        }
+
+        private Expression numberLiteral(int value) {
+            return literal((double)value, String.valueOf(value));
+        }
+
+        private Expression stringLiteral() {
+            String value = "s" + random.nextInt(1000);
+            return literal(value, "\"" + value + "\"");
+        }
+
+        private Expression literal(Object value, String text) {
+            return new Expression() {
+                public void emit(StringBuilder out) {
+                    out.append(text);
+                }
+
+                public Object evaluate(Model model) {
+                    return value;
+                }
+            };
+        }
+
+        private Expression variable(String name) {
+            return new Expression() {
+                public void emit(StringBuilder out) {
+                    out.append(name);
+                }
+
+                public Object evaluate(Model model) {
+                    return model.get(name);
+                }
+            };
+        }
+
+        private Expression grouping(Expression inner) {
+            return new Expression() {
+                public void emit(StringBuilder out) {
+                    out.append('(');
+                    inner.emit(out);
+                    out.append(')');
+                }
+
+                public Object evaluate(Model model) {
+                    return inner.evaluate(model);
+                }
+            };
+        }
+
+        private Expression unary(String operator, Expression right) {
+            return new Expression() {
+                public void emit(StringBuilder out) {
+                    out.append(operator);
+                    right.emit(out);
+                }
+
+                public Object evaluate(Model model) {
+                    Object value = right.evaluate(model);
+                    if (operator.equals("-")) return -(Double)value;
+                    return !(Boolean)value;
+                }
+            };
+        }
+
+        private Expression binary(Expression left, String operator, Expression right) {
+            return new Expression() {
+                public void emit(StringBuilder out) {
+                    // Always parenthesized, so the generator never has to
+                    // reason about precedence
+                    out.append('(');
+                    left.emit(out);
+                    out.append(' ').append(operator).append(' ');
+                    right.emit(out);
+                    out.append(')');
+                }
+
+                public Object evaluate(Model model) {
+                    Object a = left.evaluate(model);
+                    // Short-circuit like the interpreter does
+                    if (operator.equals("and")) return (Boolean)a ? right.evaluate(model) : a;
+                    if (operator.equals("or")) return (Boolean)a ? a : right.evaluate(model);
+
+                    Object b = right.evaluate(model);
+                    switch (operator) {
+                        case "==": return Objects.equals(a, b);
+                        case "!=": return !Objects.equals(a, b);
+                        case "+":
+                            if (a instanceof String) return (String)a + (String)b;
+                            return (Double)a + (Double)b;
+                        case "-": return (Double)a - (Double)b;
+                        case "*": return (Double)a * (Double)b;
+                        case "/": return (Double)a / (Double)b;
+                        case "<": return (Double)a < (Double)b;
+                        case "<=": return (Double)a <= (Double)b;
+                        case ">": return (Double)a > (Double)b;
+                        default: return (Double)a >= (Double)b;
+                    }
+                }
+            };
+        }
+    }
+}
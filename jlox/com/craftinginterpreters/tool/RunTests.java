@@ -0,0 +1,193 @@
+package com.craftinginterpreters.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs the regression scripts in a directory (jlox/test, on `mvn test`).
+//
+// Each script says what it should do in comments, the way the book's test
+// suite does:
+//
+//   print 1 + 2; // expect: 3
+//   print nil + 1; // expect runtime error: Operands must ...
+//   print 1 +; // Error  at ';': Expect expression.
+//   // [line 7] Error : Unexpected character: @
+//   // flags: --heap-cap 20000
+//
+// `expect` lines are the standard output, in order. A runtime error has to
+// be reported at the line of its comment, and the script has to exit 70.
+// Compile errors are the standard error, in order, at the line of their
+// comment unless they give one, and the script has to exit 65.
+// `flags` are passed to jlox before the script; paths in them are relative
+// to the script's directory. Only the directory's own .lox files are
+// scripts, so files they use (a prelude) can go in a subdirectory.
+//
+// Every script runs in its own JVM, once optimized and once with
+// --no-optimize, so a script that hangs (an optimization must never change
+// whether a program terminates) fails after TIMEOUT_SECONDS instead of
+// hanging the build.
+//
+// After the scripts come a few programs from GenerateWorkload, checked
+// against the output its model of them predicts.
+public class RunTests {
+
+    private static final long TIMEOUT_SECONDS = 20;
+    private static final String[][] MODES = { {}, { "--no-optimize" } };
+    private static final long[] GENERATED_SEEDS = { 1, 2, 3 };
+
+    private static final Pattern EXPECT = Pattern.compile("// expect: ?(.*)");
+    private static final Pattern RUNTIME_ERROR =
+        Pattern.compile("// expect runtime error: (.+)");
+    private static final Pattern COMPILE_ERROR =
+        Pattern.compile("// (\\[line (\\d+)\\] )?(Error.*)");
+    private static final Pattern FLAGS = Pattern.compile("// flags: (.+)");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: run_tests <test_dir>");
+            System.exit(64);
+        }
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(Paths.get(args[0]))) {
+            scripts = files.filter(path -> path.toString().endsWith(".lox"))
+                .sorted().collect(Collectors.toList());
+        }
+
+        int failures = 0;
+        for (Path script : scripts) {
+            for (String[] mode : MODES) {
+                failures += report(script.getFileName().toString(), mode, run(script, mode));
+            }
+        }
+        for (long seed : GENERATED_SEEDS) {
+            for (String[] mode : MODES) {
+                failures += report("generated seed " + seed, mode, runGenerated(seed, mode));
+            }
+        }
+        int total = scripts.size() + GENERATED_SEEDS.length;
+        System.out.println(failures == 0 ? "All " + total + " scripts passed."
+            : failures + " failed.");
+        if (failures > 0) System.exit(1);
+    }
+
+    // Prints how one run went, and returns 1 if it failed
+    private static int report(String script, String[] mode, String failure) {
+        String name = script + (mode.length == 0 ? "" : " " + mode[0]);
+        if (failure == null) {
+            System.out.println("PASS " + name);
+            return 0;
+        }
+        System.out.println("FAIL " + name + ": " + failure);
+        return 1;
+    }
+
+    // What went wrong, or null if the script did what it says
+    private static String run(Path script, String[] mode)
+            throws IOException, InterruptedException {
+        List<String> flags = new ArrayList<>();
+        List<String> expectedOut = new ArrayList<>();
+        List<String> expectedErr = new ArrayList<>();
+        int expectedStatus = 0;
+
+        List<String> lines = Files.readAllLines(script, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            Matcher matcher = EXPECT.matcher(lines.get(i));
+            if (matcher.find()) expectedOut.add(matcher.group(1));
+            matcher = RUNTIME_ERROR.matcher(lines.get(i));
+            if (matcher.find()) {
+                expectedErr.add(matcher.group(1));
+                expectedErr.add("[line " + (i + 1) + "]");
+                expectedStatus = 70;
+            }
+            matcher = COMPILE_ERROR.matcher(lines.get(i));
+            if (matcher.find()) {
+                String line = matcher.group(2) != null ? matcher.group(2) : String.valueOf(i + 1);
+                expectedErr.add("[line " + line + "] " + matcher.group(3));
+                expectedStatus = 65;
+            }
+            matcher = FLAGS.matcher(lines.get(i));
+            if (matcher.find()) flags.addAll(Arrays.asList(matcher.group(1).split(" ")));
+        }
+        return run(script, mode, flags, expectedOut, expectedErr, expectedStatus);
+    }
+
+    private static String runGenerated(long seed, String[] mode)
+            throws IOException, InterruptedException {
+        GenerateWorkload.Options options = new GenerateWorkload.Options();
+        options.seed = seed;
+        GenerateWorkload.Program program = GenerateWorkload.generate(options);
+
+        File script = File.createTempFile("jlox-generated", ".lox");
+        try {
+            try (PrintWriter writer = new PrintWriter(script, "UTF-8")) {
+                writer.print(program.source);
+            }
+            return run(script.toPath(), mode, Collections.emptyList(), program.run(),
+                Collections.emptyList(), 0);
+        } finally {
+            script.delete();
+        }
+    }
+
+    private static String run(Path script, String[] mode, List<String> flags,
+            List<String> expectedOut, List<String> expectedErr, int expectedStatus)
+            throws IOException, InterruptedException {
+        // The JVM runs in the script's directory, so the class path can't
+        // be relative
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        Path absolute = script.toAbsolutePath();
+        List<String> command = new ArrayList<>(Arrays.asList(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", String.join(File.pathSeparator, classPath),
+            "com.craftinginterpreters.lox.Lox", "--no-cache"));
+        command.addAll(Arrays.asList(mode));
+        command.addAll(flags);
+        command.add(absolute.toString());
+
+        File out = File.createTempFile("jlox-test", ".out");
+        File err = File.createTempFile("jlox-test", ".err");
+        try {
+            Process process = new ProcessBuilder(command)
+                .directory(absolute.getParent().toFile())
+                .redirectOutput(out).redirectError(err).start();
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                return "still running after " + TIMEOUT_SECONDS + " seconds";
+            }
+
+            List<String> actualOut = Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+            List<String> actualErr = Files.readAllLines(err.toPath(), StandardCharsets.UTF_8);
+            if (process.exitValue() != expectedStatus) {
+                return "exit " + process.exitValue() + ", expected " + expectedStatus +
+                    (actualErr.isEmpty() ? "" : " (" + String.join(" / ", actualErr) + ")");
+            }
+            if (!actualOut.equals(expectedOut)) {
+                return "printed " + actualOut + ", expected " + expectedOut;
+            }
+            if (!actualErr.equals(expectedErr)) {
+                return "reported " + actualErr + ", expected " + expectedErr;
+            }
+            return null;
+        } finally {
+            out.delete();
+            err.delete();
+        }
+    }
+}